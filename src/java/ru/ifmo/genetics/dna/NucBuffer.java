@@ -0,0 +1,76 @@
+package ru.ifmo.genetics.dna;
+
+import java.util.Arrays;
+
+/**
+ * Growable sequence of nucleotides packed by 2 bits, 32 nucleotides in one long. <br>
+ * Can be truncated with {@link #setLength(int)} and extended again without new allocations.
+ */
+public class NucBuffer {
+    protected final static int NUCS_IN_SINGLE_ELEMENT_LOG = 5;
+    protected final static int INDEX_MASK = (1 << NUCS_IN_SINGLE_ELEMENT_LOG) - 1;
+
+    protected final static int NUC_SIZE_BITS = 2;
+    protected final static long NUC_MASK = (1L << NUC_SIZE_BITS) - 1;
+
+    private long[] array;
+    private int length = 0;
+
+    public NucBuffer() {
+        this(64);
+    }
+
+    public NucBuffer(int capacity) {
+        array = new long[Math.max(1, (capacity + INDEX_MASK) >> NUCS_IN_SINGLE_ELEMENT_LOG)];
+    }
+
+    public void append(byte nuc) {
+        int i = length >> NUCS_IN_SINGLE_ELEMENT_LOG;
+        if (i == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        int shift = NUC_SIZE_BITS * (length & INDEX_MASK);
+        array[i] = (array[i] & ~(NUC_MASK << shift)) | ((long) nuc << shift);
+        length++;
+    }
+
+    public byte get(int index) {
+        int i = index >> NUCS_IN_SINGLE_ELEMENT_LOG;
+        int j = index & INDEX_MASK;
+        return (byte) ((array[i] >>> (NUC_SIZE_BITS * j)) & NUC_MASK);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Truncates buffer to newLength nucleotides.
+     */
+    public void setLength(int newLength) {
+        if (newLength < 0 || newLength > length) {
+            throw new IllegalArgumentException("Can't set length " + newLength + ", current length is " + length);
+        }
+        length = newLength;
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Writes nucleotides as characters to dest starting from offset.
+     */
+    public void getChars(char[] dest, int offset) {
+        for (int i = 0; i < length; i++) {
+            dest[offset + i] = DnaTools.toChar(get(i));
+        }
+    }
+
+    @Override
+    public String toString() {
+        char[] c = new char[length];
+        getChars(c, 0);
+        return new String(c);
+    }
+}
@@ -0,0 +1,152 @@
+package ru.ifmo.genetics.io;
+
+import ru.ifmo.genetics.structures.arrays.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps snapshot file written by {@link SnapshotWriter}. <br>
+ *
+ * Arrays are returned as read-only views of the mapped file, so nothing is deserialized,
+ * pages are loaded lazily and are shared through the page cache between processes mapping the same file.
+ * Arrays stay valid after {@link #close()}.
+ */
+public class SnapshotReader {
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ByteOrder order;
+
+    private final long[] fields;
+    private final long[][] sections;
+    private int fieldsRead = 0;
+    private int sectionsRead = 0;
+
+    public SnapshotReader(File file, int type) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        try {
+            channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(SnapshotWriter.PAGE_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("File " + file + " is not a snapshot file");
+                }
+            }
+            header.flip();
+
+            if (header.getLong() != SnapshotWriter.MAGIC) {
+                throw new IOException("File " + file + " is not a snapshot file");
+            }
+            int version = header.getInt();
+            if (version != SnapshotWriter.VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in file " + file +
+                        ", expected " + SnapshotWriter.VERSION);
+            }
+            order = (header.getInt() == 0) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            int fileType = header.getInt();
+            if (fileType != type) {
+                throw new IOException("Snapshot " + file + " has type " + fileType + ", expected " + type);
+            }
+
+            fields = new long[header.getInt()];
+            sections = new long[header.getInt()][3];
+            for (int i = 0; i < fields.length; ++i) {
+                fields[i] = header.getLong();
+            }
+            for (long[] section : sections) {
+                for (int j = 0; j < 3; ++j) {
+                    section[j] = header.getLong();
+                }
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if file starts with snapshot magic
+     */
+    public static boolean isSnapshot(File file) throws IOException {
+        if (file.length() < SnapshotWriter.PAGE_SIZE) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readLong() == SnapshotWriter.MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    public long readLong() throws IOException {
+        if (fieldsRead == fields.length) {
+            throw new IOException("No more fields in snapshot");
+        }
+        return fields[fieldsRead++];
+    }
+
+    public BigLongArray readLongs() throws IOException {
+        long length = nextSectionLength(8);
+        return new DirectBigLongArray(length, mapSection(8));
+    }
+
+    public BigAtomicLongArray readAtomicLongs() throws IOException {
+        long length = nextSectionLength(8);
+        return new MappedBigAtomicLongArray(length, mapSection(8));
+    }
+
+    public BigIntegerArray readInts() throws IOException {
+        long length = nextSectionLength(4);
+        return new DirectBigIntegerArray(length, mapSection(4));
+    }
+
+    public BigAtomicIntegerArray readAtomicInts() throws IOException {
+        long length = nextSectionLength(4);
+        return new MappedBigAtomicIntegerArray(length, mapSection(4));
+    }
+
+    public BigBooleanArray readBooleans() throws IOException {
+        long length = nextSectionLength(1);
+        return new DirectBigBooleanArray(length, mapSection(1));
+    }
+
+    private long nextSectionLength(int elementSize) throws IOException {
+        if (sectionsRead == sections.length) {
+            throw new IOException("No more sections in snapshot");
+        }
+        long[] section = sections[sectionsRead];
+        if (section[2] != elementSize) {
+            throw new IOException("Snapshot section " + sectionsRead + " has element size " + section[2] +
+                    ", expected " + elementSize);
+        }
+        return section[1];
+    }
+
+    /**
+     * Maps next section by chunks of {@link BigLongArray#smallCapacity} elements.
+     */
+    private ByteBuffer[] mapSection(int elementSize) throws IOException {
+        long[] section = sections[sectionsRead++];
+        long offset = section[0];
+        long bytes = section[1] * elementSize;
+        long chunkBytes = (long) BigLongArray.smallCapacity * elementSize;
+
+        ByteBuffer[] chunks = new ByteBuffer[(int) ((bytes + chunkBytes - 1) / chunkBytes)];
+        for (int i = 0; i < chunks.length; ++i) {
+            long size = Math.min(chunkBytes, bytes - i * chunkBytes);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + i * chunkBytes, size).order(order);
+        }
+        return chunks;
+    }
+
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,156 @@
+package ru.ifmo.genetics.io;
+
+import ru.ifmo.genetics.structures.arrays.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes snapshot file, which can be memory-mapped by {@link SnapshotReader} and used in place. <br>
+ *
+ * File format (version 1):
+ * <ul>
+ *     <li> header page: magic, version, byte order of sections, snapshot type,
+ *          number of fields, number of sections, fields (longs), sections (offset, length, element size);
+ *          header is always big-endian;</li>
+ *     <li> sections with array elements, every section starts at page boundary
+ *          and is written in native byte order.</li>
+ * </ul>
+ * Fields and sections should be read in the same order as they were written.
+ */
+public class SnapshotWriter {
+    public static final long MAGIC = 0x534e415053484f54L;    // "SNAPSHOT"
+    public static final int VERSION = 1;
+    public static final int PAGE_SIZE = 4096;
+
+    static final int HEADER_INTS_SIZE = 8 + 5 * 4;
+    static final int BUFFER_SIZE = 1 << 23;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int type;
+
+    private final List<Long> fields = new ArrayList<Long>();
+    private final List<long[]> sections = new ArrayList<long[]>();
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+    private long position = PAGE_SIZE;
+
+    public SnapshotWriter(File file, int type) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+        this.type = type;
+    }
+
+    public void writeLong(long v) {
+        fields.add(v);
+    }
+
+    public void writeLongs(BigLongArray a) throws IOException {
+        beginSection(a.size(), 8);
+        for (long i = 0; i < a.size(); ++i) {
+            ensureRemaining(8);
+            buffer.putLong(a.get(i));
+        }
+        endSection();
+    }
+
+    public void writeLongs(BigAtomicLongArray a) throws IOException {
+        beginSection(a.size(), 8);
+        for (long i = 0; i < a.size(); ++i) {
+            ensureRemaining(8);
+            buffer.putLong(a.get(i));
+        }
+        endSection();
+    }
+
+    public void writeInts(BigIntegerArray a) throws IOException {
+        beginSection(a.size(), 4);
+        for (long i = 0; i < a.size(); ++i) {
+            ensureRemaining(4);
+            buffer.putInt(a.get(i));
+        }
+        endSection();
+    }
+
+    public void writeInts(BigAtomicIntegerArray a) throws IOException {
+        beginSection(a.size(), 4);
+        for (long i = 0; i < a.size(); ++i) {
+            ensureRemaining(4);
+            buffer.putInt(a.get(i));
+        }
+        endSection();
+    }
+
+    public void writeBooleans(BigBooleanArray a) throws IOException {
+        beginSection(a.size(), 1);
+        for (long i = 0; i < a.size(); ++i) {
+            ensureRemaining(1);
+            buffer.put((byte) (a.get(i) ? 1 : 0));
+        }
+        endSection();
+    }
+
+    private void beginSection(long length, int elementSize) {
+        position = alignToPage(position);
+        sections.add(new long[]{position, length, elementSize});
+    }
+
+    private void endSection() throws IOException {
+        flush();
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+    }
+
+    public void close() throws IOException {
+        try {
+            if (HEADER_INTS_SIZE + fields.size() * 8 + sections.size() * 24 > PAGE_SIZE) {
+                throw new IOException("Too many fields and sections for snapshot header");
+            }
+            ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 0 : 1);
+            header.putInt(type);
+            header.putInt(fields.size());
+            header.putInt(sections.size());
+            for (long v : fields) {
+                header.putLong(v);
+            }
+            for (long[] section : sections) {
+                header.putLong(section[0]);
+                header.putLong(section[1]);
+                header.putLong(section[2]);
+            }
+            header.clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    static long alignToPage(long position) {
+        return (position + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+}
@@ -0,0 +1,179 @@
+package ru.ifmo.genetics.io.readers;
+
+import ru.ifmo.genetics.executors.PatientExecutorService;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads files with (long kmer, int count) records, i.e. files written by
+ * {@link ru.ifmo.genetics.tools.ec.KmerStatisticsGatherer} with output-kmer-counts option. <br>
+ *
+ * Big ranges of records are memory-mapped, small ones are read to the buffer of the current thread.
+ * Records are passed to handler by batches. Different ranges of records can be read concurrently.
+ */
+public class MappedKmerCountsReader {
+    public static final int RECORD_SIZE = 12;
+
+    static final int MAX_MAPPED_RECORDS = Integer.MAX_VALUE / RECORD_SIZE;
+    public static final int BATCH_SIZE = 1 << 16;
+    static final long TASK_RECORDS = 1 << 22;
+    // ranges smaller than this are read, not mapped: mapping of a small range costs more than reading it
+    static final long MIN_MAPPED_BYTES = 4 << 20;
+
+    public interface BatchHandler {
+        /**
+         * Is called concurrently from different threads, arrays are reused after return.
+         */
+        public void handle(long[] kmers, int[] counts, int n);
+    }
+
+    private final File file;
+    private final long recordsNumber;
+
+    public MappedKmerCountsReader(File file) {
+        this.file = file;
+        recordsNumber = file.length() / RECORD_SIZE;
+    }
+
+    public long recordsNumber() {
+        return recordsNumber;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads records with numbers in [from, to).
+     */
+    public void read(long from, long to, BatchHandler handler) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            read(raf.getChannel(), from, to, handler);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static class ReadBuffers {
+        final ByteBuffer bytes = ByteBuffer.allocateDirect(BATCH_SIZE * RECORD_SIZE);
+        final long[] kmers = new long[BATCH_SIZE];
+        final int[] counts = new int[BATCH_SIZE];
+    }
+
+    private static final ThreadLocal<ReadBuffers> readBuffers = new ThreadLocal<ReadBuffers>() {
+        @Override
+        protected ReadBuffers initialValue() {
+            return new ReadBuffers();
+        }
+    };
+
+    /**
+     * Reads records with numbers in [from, to) from the already opened channel,
+     * can be called concurrently for the same channel.
+     */
+    public static void read(FileChannel channel, long from, long to, BatchHandler handler) throws IOException {
+        if ((to - from) * RECORD_SIZE < MIN_MAPPED_BYTES) {
+            readSmallRange(channel, from, to, handler);
+            return;
+        }
+        int batchSize = (int) Math.min(BATCH_SIZE, to - from);
+        if (batchSize <= 0) {
+            return;
+        }
+        long[] kmers = new long[batchSize];
+        int[] counts = new int[batchSize];
+
+        while (from < to) {
+            int toMap = (int) Math.min(to - from, MAX_MAPPED_RECORDS);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    from * RECORD_SIZE, (long) toMap * RECORD_SIZE);
+
+            int n = 0;
+            for (int i = 0, pos = 0; i < toMap; ++i, pos += RECORD_SIZE) {
+                kmers[n] = buffer.getLong(pos);
+                counts[n] = buffer.getInt(pos + 8);
+                n++;
+                if (n == batchSize) {
+                    handler.handle(kmers, counts, n);
+                    n = 0;
+                }
+            }
+            if (n > 0) {
+                handler.handle(kmers, counts, n);
+            }
+            from += toMap;
+        }
+    }
+
+    /**
+     * Reads range with positional reads to the buffers of the current thread,
+     * so handler mustn't read records by itself.
+     */
+    private static void readSmallRange(FileChannel channel, long from, long to, BatchHandler handler)
+            throws IOException {
+        ReadBuffers buffers = readBuffers.get();
+        ByteBuffer bytes = buffers.bytes;
+        while (from < to) {
+            int n = (int) Math.min(to - from, BATCH_SIZE);
+            long position = from * RECORD_SIZE;
+            bytes.clear();
+            bytes.limit(n * RECORD_SIZE);
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, position + bytes.position()) == -1) {
+                    throw new EOFException("Records [" + from + ", " + to + ") are out of file");
+                }
+            }
+
+            for (int i = 0, pos = 0; i < n; ++i, pos += RECORD_SIZE) {
+                buffers.kmers[i] = bytes.getLong(pos);
+                buffers.counts[i] = bytes.getInt(pos + 8);
+            }
+            handler.handle(buffers.kmers, buffers.counts, n);
+            from += n;
+        }
+    }
+
+    public void read(BatchHandler handler) throws IOException {
+        read(0, recordsNumber, handler);
+    }
+
+    /**
+     * Reads all records from all files, files are split into ranges which are read in parallel.
+     */
+    public static void readAll(File[] files, int threads, final BatchHandler handler)
+            throws IOException, InterruptedException {
+        if (threads <= 1) {
+            for (File file : files) {
+                new MappedKmerCountsReader(file).read(handler);
+            }
+            return;
+        }
+
+        PatientExecutorService executor = new PatientExecutorService(threads);
+        for (File file : files) {
+            final MappedKmerCountsReader reader = new MappedKmerCountsReader(file);
+            for (long from = 0; from < reader.recordsNumber(); from += TASK_RECORDS) {
+                final long f = from;
+                final long t = Math.min(reader.recordsNumber(), from + TASK_RECORDS);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            reader.read(f, t, handler);
+                        } catch (IOException e) {
+                            throw new RuntimeException("Can't read " + reader.getFile(), e);
+                        }
+                    }
+                });
+            }
+        }
+        executor.waitForShutdown();
+    }
+}
@@ -3,14 +3,17 @@ package ru.ifmo.genetics.structures;
 import it.unimi.dsi.fastutil.longs.Long2IntMap;
 import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class ArrayLong2IntHashMap {
 
     public Long2IntOpenHashMap[] hm;
     long mask;
+    private final int logMapsNumber;
 
     public ArrayLong2IntHashMap(int logMapsNumber) {
+        this.logMapsNumber = logMapsNumber;
         int mapsNumber = 1 << logMapsNumber;
         mask = mapsNumber - 1;
 
@@ -32,6 +35,34 @@ public class ArrayLong2IntHashMap {
         }
     }
 
+    /**
+     * Adds first n keys, every occurrence of a key adds one to its value. <br>
+     * Keys are grouped by maps they belong to and equal keys are merged, so every map is locked once
+     * and every distinct key is added once. Keys array is reordered.
+     */
+    public void addAll(long[] keys, int n) {
+        // rotated keys of one map are sorted to a contiguous range
+        for (int i = 0; i < n; ++i) {
+            keys[i] = Long.rotateRight(keys[i], logMapsNumber);
+        }
+        Arrays.sort(keys, 0, n);
+
+        int i = 0;
+        while (i < n) {
+            int ind = (int)(Long.rotateLeft(keys[i], logMapsNumber) & mask);
+            synchronized (hm[ind]) {
+                while (i < n && (int)(Long.rotateLeft(keys[i], logMapsNumber) & mask) == ind) {
+                    int j = i + 1;
+                    while (j < n && keys[j] == keys[i]) {
+                        ++j;
+                    }
+                    hm[ind].add(Long.rotateLeft(keys[i], logMapsNumber), j - i);
+                    i = j;
+                }
+            }
+        }
+    }
+
     public long size() {
         long size = 0;
         for (Long2IntMap m : hm) {
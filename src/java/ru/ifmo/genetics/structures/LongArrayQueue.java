@@ -0,0 +1,65 @@
+package ru.ifmo.genetics.structures;
+
+import java.util.NoSuchElementException;
+
+/**
+ * FIFO queue of primitive longs based on a growing ring buffer. <br>
+ * Can be reused after {@link #clear()} without new allocations.
+ */
+public class LongArrayQueue {
+    private long[] ar;
+    private int mask;
+    private int head = 0;
+    private int size = 0;
+
+    public LongArrayQueue() {
+        this(16);
+    }
+
+    public LongArrayQueue(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+        ar = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public void add(long v) {
+        if (size == ar.length) {
+            grow();
+        }
+        ar[(head + size) & mask] = v;
+        size++;
+    }
+
+    public long poll() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        long v = ar[head];
+        head = (head + 1) & mask;
+        size--;
+        return v;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        long[] newAr = new long[ar.length * 2];
+        int firstPart = ar.length - head;
+        System.arraycopy(ar, head, newAr, 0, firstPart);
+        System.arraycopy(ar, 0, newAr, firstPart, head);
+        ar = newAr;
+        mask = ar.length - 1;
+        head = 0;
+    }
+}
@@ -0,0 +1,53 @@
+package ru.ifmo.genetics.structures.arrays;
+
+import ru.ifmo.genetics.utils.Misc;
+
+/**
+ * Creates big arrays with storage chosen for the current run. <br>
+ *
+ * By default arrays are stored in java heap. With off-heap storage arrays are kept in direct buffers,
+ * so large tables don't increase GC pauses and aren't limited by -Xmx (but by -XX:MaxDirectMemorySize).
+ * Thread-safe Big*Atomic* arrays (and so concurrent hash tables) are always stored in heap. <br>
+ *
+ * Structures built from these arrays should be sized with {@link #availableMemory()}, not with heap memory.
+ */
+public class BigArrays {
+    private static volatile boolean offHeap = false;
+    private static volatile long offHeapMemory = Runtime.getRuntime().maxMemory();
+
+    public static void setOffHeap(boolean offHeap) {
+        BigArrays.offHeap = offHeap;
+    }
+
+    public static boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public static void setOffHeapMemory(long offHeapMemory) {
+        BigArrays.offHeapMemory = offHeapMemory;
+    }
+
+    /**
+     * Returns memory available for arrays created by this class:
+     * off-heap memory budget for off-heap storage and free heap memory otherwise.
+     */
+    public static long availableMemory() {
+        return offHeap ? offHeapMemory : Misc.availableMemory();
+    }
+
+    public static BigLongArray newLongArray(long size) {
+        return offHeap ? new DirectBigLongArray(size) : new BigLongArray(size);
+    }
+
+    public static BigIntegerArray newIntegerArray(long size) {
+        return offHeap ? new DirectBigIntegerArray(size) : new BigIntegerArray(size);
+    }
+
+    public static BigBooleanArray newBooleanArray(long size) {
+        return offHeap ? new DirectBigBooleanArray(size) : new BigBooleanArray(size);
+    }
+
+    public static BigBytesArray newBytesArray(long size) {
+        return offHeap ? new DirectBigBytesArray(size) : new BigBytesArray(size);
+    }
+}
@@ -0,0 +1,80 @@
+package ru.ifmo.genetics.structures.arrays;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Thread-safe analogue of {@link BigIntegerArray}, all elements can be updated atomically.
+ */
+public class BigAtomicIntegerArray implements BigArray {
+    public static final int logSmallCapacity = 20;    // 1 M  [ * 4 byte = 4 Mb]
+    public static final int smallCapacity = 1 << logSmallCapacity;
+    public static final int smallCapacityMask = smallCapacity - 1;
+
+    private AtomicIntegerArray[] ar;
+    protected long size;
+
+    public BigAtomicIntegerArray() {
+        this(0);
+    }
+
+    public BigAtomicIntegerArray(long size) {
+        reset(size);
+    }
+
+    public void reset(long size) {
+        this.size = size;
+        int cnt = (int)((size + smallCapacity - 1) >>> logSmallCapacity);
+        ar = new AtomicIntegerArray[cnt];
+        for (int i = 0; i < cnt; ++i) {
+            ar[i] = new AtomicIntegerArray(smallCapacity);
+        }
+    }
+
+    public int get(long i) {
+        assert 0 <= i && i < size : i;
+
+        return ar[(int)(i >>> logSmallCapacity)].get((int)(i & smallCapacityMask));
+    }
+
+    public int set(long i, int value) {
+        assert 0 <= i && i < size : i;
+
+        return ar[(int)(i >>> logSmallCapacity)].getAndSet((int)(i & smallCapacityMask), value);
+    }
+
+    public boolean compareAndSet(long i, int expect, int update) {
+        assert 0 <= i && i < size : i;
+
+        return ar[(int)(i >>> logSmallCapacity)].compareAndSet((int)(i & smallCapacityMask), expect, update);
+    }
+
+    public int addAndGet(long i, int delta) {
+        assert 0 <= i && i < size : i;
+
+        return ar[(int)(i >>> logSmallCapacity)].addAndGet((int)(i & smallCapacityMask), delta);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void write(DataOutput dataOutput) throws IOException {
+        dataOutput.writeLong(size);
+        for (long i = 0; i < size; ++i) {
+            dataOutput.writeInt(get(i));
+        }
+    }
+
+    @Override
+    public void readFields(DataInput dataInput) throws IOException {
+        size = dataInput.readLong();
+        reset(size);
+        for (long i = 0; i < size; ++i) {
+            set(i, dataInput.readInt());
+        }
+    }
+}
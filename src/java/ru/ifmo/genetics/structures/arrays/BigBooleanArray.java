@@ -12,7 +12,7 @@ public class BigBooleanArray implements BigArray {
     public static final int smallCapacityMask = smallCapacity - 1;
 
     private boolean[][] ar;
-    private long size;
+    protected long size;
 
     public BigBooleanArray() {
         this(0);
@@ -2,9 +2,9 @@ package ru.ifmo.genetics.structures.arrays;
 
 public class BigBytesArray {
 
-    private final static int BUCKET_SIZE_POWER = 30;
-    private final static int BUCKET_SIZE = 1 << BUCKET_SIZE_POWER;
-    private final static int BUCKET_SIZE_MASK = BUCKET_SIZE - 1;
+    protected final static int BUCKET_SIZE_POWER = 30;
+    protected final static int BUCKET_SIZE = 1 << BUCKET_SIZE_POWER;
+    protected final static int BUCKET_SIZE_MASK = BUCKET_SIZE - 1;
 
     private byte[][] ar;
 
@@ -12,6 +12,12 @@ public class BigBytesArray {
         ar = new byte[(int)((size - 1) / BUCKET_SIZE + 1)][BUCKET_SIZE];
     }
 
+    /**
+     * For subclasses with another storage
+     */
+    protected BigBytesArray() {
+    }
+
     public void set(long i, byte value) {
         ar[(int)(i >>> BUCKET_SIZE_POWER)][(int)(i & BUCKET_SIZE_MASK)] = value;
     }
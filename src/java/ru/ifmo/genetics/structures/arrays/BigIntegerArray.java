@@ -10,7 +10,7 @@ public class BigIntegerArray implements BigArray {
     public static final int smallCapacityMask = smallCapacity - 1;
 
     private int[][] ar;
-    private long size;
+    protected long size;
 
     public BigIntegerArray() {
         this(0);
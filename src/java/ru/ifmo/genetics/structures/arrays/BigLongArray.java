@@ -10,7 +10,7 @@ public class BigLongArray implements BigArray {
     public static final int smallCapacityMask = smallCapacity - 1;
 
     private long[][] ar;
-    private long size;
+    protected long size;
 
     public BigLongArray() {
         this(0);
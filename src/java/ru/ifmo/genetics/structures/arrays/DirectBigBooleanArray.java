@@ -0,0 +1,57 @@
+package ru.ifmo.genetics.structures.arrays;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link BigBooleanArray} stored outside of java heap in direct buffers, one byte per element. <br>
+ * Has the same serialization format, so arrays of both kinds can be read from the same files.
+ */
+public class DirectBigBooleanArray extends BigBooleanArray {
+    private ByteBuffer[] buffers;
+
+    public DirectBigBooleanArray() {
+        this(0);
+    }
+
+    public DirectBigBooleanArray(long size) {
+        super(size);
+    }
+
+    /**
+     * Wraps existing buffers (e.g. mapped file regions) without copying,
+     * every buffer but the last one should contain exactly {@link #smallCapacity} elements.
+     */
+    public DirectBigBooleanArray(long size, ByteBuffer[] chunks) {
+        super(0);
+        this.size = size;
+        buffers = chunks;
+    }
+
+    @Override
+    public void reset(long size) {
+        this.size = size;
+        int cnt = (int)((size + smallCapacity - 1) >>> logSmallCapacity);
+        buffers = new ByteBuffer[cnt];
+        for (int i = 0; i < cnt; ++i) {
+            buffers[i] = ByteBuffer.allocateDirect(smallCapacity);
+        }
+    }
+
+    @Override
+    public boolean get(long i) {
+        assert 0 <= i && i < size : i;
+
+        return buffers[(int)(i >>> logSmallCapacity)].get((int)(i & smallCapacityMask)) != 0;
+    }
+
+    @Override
+    public boolean set(long i, boolean value) {
+        assert 0 <= i && i < size : i;
+
+        ByteBuffer buffer = buffers[(int)(i >>> logSmallCapacity)];
+        int i2 = (int)(i & smallCapacityMask);
+        boolean old = buffer.get(i2) != 0;
+        buffer.put(i2, (byte) (value ? 1 : 0));
+        return old;
+    }
+}
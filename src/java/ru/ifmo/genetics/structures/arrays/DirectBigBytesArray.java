@@ -0,0 +1,29 @@
+package ru.ifmo.genetics.structures.arrays;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link BigBytesArray} stored outside of java heap in direct buffers.
+ */
+public class DirectBigBytesArray extends BigBytesArray {
+    private ByteBuffer[] buffers;
+
+    public DirectBigBytesArray(long size) {
+        int cnt = (int)((size - 1) / BUCKET_SIZE + 1);
+        buffers = new ByteBuffer[cnt];
+        for (int i = 0; i < cnt; ++i) {
+            long left = size - ((long) i << BUCKET_SIZE_POWER);
+            buffers[i] = ByteBuffer.allocateDirect((int) Math.min(left, BUCKET_SIZE));
+        }
+    }
+
+    @Override
+    public void set(long i, byte value) {
+        buffers[(int)(i >>> BUCKET_SIZE_POWER)].put((int)(i & BUCKET_SIZE_MASK), value);
+    }
+
+    @Override
+    public byte get(long i) {
+        return buffers[(int)(i >>> BUCKET_SIZE_POWER)].get((int)(i & BUCKET_SIZE_MASK));
+    }
+}
@@ -0,0 +1,62 @@
+package ru.ifmo.genetics.structures.arrays;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * {@link BigIntegerArray} stored outside of java heap in direct buffers. <br>
+ * Has the same serialization format, so arrays of both kinds can be read from the same files.
+ */
+public class DirectBigIntegerArray extends BigIntegerArray {
+    private IntBuffer[] buffers;
+
+    public DirectBigIntegerArray() {
+        this(0);
+    }
+
+    public DirectBigIntegerArray(long size) {
+        super(size);
+    }
+
+    /**
+     * Wraps existing buffers (e.g. mapped file regions) without copying,
+     * every buffer but the last one should contain exactly {@link #smallCapacity} elements.
+     */
+    public DirectBigIntegerArray(long size, ByteBuffer[] chunks) {
+        super(0);
+        this.size = size;
+        buffers = new IntBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; ++i) {
+            buffers[i] = chunks[i].asIntBuffer();
+        }
+    }
+
+    @Override
+    public void reset(long size) {
+        this.size = size;
+        int cnt = (int)((size + smallCapacity - 1) >>> logSmallCapacity);
+        buffers = new IntBuffer[cnt];
+        for (int i = 0; i < cnt; ++i) {
+            buffers[i] = ByteBuffer.allocateDirect(smallCapacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+    }
+
+    @Override
+    public int get(long i) {
+        assert 0 <= i && i < size : i;
+
+        return buffers[(int)(i >>> logSmallCapacity)].get((int)(i & smallCapacityMask));
+    }
+
+    @Override
+    public int set(long i, int value) {
+        assert 0 <= i && i < size : i;
+
+        IntBuffer buffer = buffers[(int)(i >>> logSmallCapacity)];
+        int i2 = (int)(i & smallCapacityMask);
+        int old = buffer.get(i2);
+        buffer.put(i2, value);
+        return old;
+    }
+}
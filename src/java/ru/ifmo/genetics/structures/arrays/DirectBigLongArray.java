@@ -0,0 +1,62 @@
+package ru.ifmo.genetics.structures.arrays;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * {@link BigLongArray} stored outside of java heap in direct buffers. <br>
+ * Has the same serialization format, so arrays of both kinds can be read from the same files.
+ */
+public class DirectBigLongArray extends BigLongArray {
+    private LongBuffer[] buffers;
+
+    public DirectBigLongArray() {
+        this(0);
+    }
+
+    public DirectBigLongArray(long size) {
+        super(size);
+    }
+
+    /**
+     * Wraps existing buffers (e.g. mapped file regions) without copying,
+     * every buffer but the last one should contain exactly {@link #smallCapacity} elements.
+     */
+    public DirectBigLongArray(long size, ByteBuffer[] chunks) {
+        super(0);
+        this.size = size;
+        buffers = new LongBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; ++i) {
+            buffers[i] = chunks[i].asLongBuffer();
+        }
+    }
+
+    @Override
+    public void reset(long size) {
+        this.size = size;
+        int cnt = (int)((size + smallCapacity - 1) >>> logSmallCapacity);
+        buffers = new LongBuffer[cnt];
+        for (int i = 0; i < cnt; ++i) {
+            buffers[i] = ByteBuffer.allocateDirect(smallCapacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+    }
+
+    @Override
+    public long get(long i) {
+        assert 0 <= i && i < size : i;
+
+        return buffers[(int)(i >>> logSmallCapacity)].get((int)(i & smallCapacityMask));
+    }
+
+    @Override
+    public long set(long i, long value) {
+        assert 0 <= i && i < size : i;
+
+        LongBuffer buffer = buffers[(int)(i >>> logSmallCapacity)];
+        int i2 = (int)(i & smallCapacityMask);
+        long old = buffer.get(i2);
+        buffer.put(i2, value);
+        return old;
+    }
+}
@@ -0,0 +1,55 @@
+package ru.ifmo.genetics.structures.arrays;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Read-only {@link BigAtomicIntegerArray} over existing buffers, e.g. over memory-mapped snapshot file. <br>
+ * All modifying methods throw {@link UnsupportedOperationException}.
+ */
+public class MappedBigAtomicIntegerArray extends BigAtomicIntegerArray {
+    private IntBuffer[] buffers;
+
+    /**
+     * Every buffer but the last one should contain exactly {@link #smallCapacity} elements.
+     */
+    public MappedBigAtomicIntegerArray(long size, ByteBuffer[] chunks) {
+        super(0);
+        this.size = size;
+        buffers = new IntBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; ++i) {
+            buffers[i] = chunks[i].asIntBuffer();
+        }
+    }
+
+    @Override
+    public void reset(long size) {
+        if (size != 0) {
+            throw new UnsupportedOperationException("Mapped array is read-only");
+        }
+        this.size = 0;
+        buffers = new IntBuffer[0];
+    }
+
+    @Override
+    public int get(long i) {
+        assert 0 <= i && i < size : i;
+
+        return buffers[(int)(i >>> logSmallCapacity)].get((int)(i & smallCapacityMask));
+    }
+
+    @Override
+    public int set(long i, int value) {
+        throw new UnsupportedOperationException("Mapped array is read-only");
+    }
+
+    @Override
+    public boolean compareAndSet(long i, int expect, int update) {
+        throw new UnsupportedOperationException("Mapped array is read-only");
+    }
+
+    @Override
+    public int addAndGet(long i, int delta) {
+        throw new UnsupportedOperationException("Mapped array is read-only");
+    }
+}
@@ -0,0 +1,55 @@
+package ru.ifmo.genetics.structures.arrays;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Read-only {@link BigAtomicLongArray} over existing buffers, e.g. over memory-mapped snapshot file. <br>
+ * All modifying methods throw {@link UnsupportedOperationException}.
+ */
+public class MappedBigAtomicLongArray extends BigAtomicLongArray {
+    private LongBuffer[] buffers;
+
+    /**
+     * Every buffer but the last one should contain exactly {@link #smallCapacity} elements.
+     */
+    public MappedBigAtomicLongArray(long size, ByteBuffer[] chunks) {
+        super(0);
+        this.size = size;
+        buffers = new LongBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; ++i) {
+            buffers[i] = chunks[i].asLongBuffer();
+        }
+    }
+
+    @Override
+    public void reset(long size) {
+        if (size != 0) {
+            throw new UnsupportedOperationException("Mapped array is read-only");
+        }
+        this.size = 0;
+        buffers = new LongBuffer[0];
+    }
+
+    @Override
+    public long get(long i) {
+        assert 0 <= i && i < size : i;
+
+        return buffers[(int)(i >>> logSmallCapacity)].get((int)(i & smallCapacityMask));
+    }
+
+    @Override
+    public long set(long i, long value) {
+        throw new UnsupportedOperationException("Mapped array is read-only");
+    }
+
+    @Override
+    public boolean compareAndSet(long i, long expect, long update) {
+        throw new UnsupportedOperationException("Mapped array is read-only");
+    }
+
+    @Override
+    public long addAndGet(long i, long delta) {
+        throw new UnsupportedOperationException("Mapped array is read-only");
+    }
+}
@@ -2,14 +2,19 @@ package ru.ifmo.genetics.structures.debriujn;
 
 import org.apache.hadoop.io.Writable;
 import ru.ifmo.genetics.dna.kmers.BigKmer;
+import ru.ifmo.genetics.io.SnapshotReader;
+import ru.ifmo.genetics.io.SnapshotWriter;
 import ru.ifmo.genetics.structures.set.BigLongsHashSet;
 import ru.ifmo.genetics.structures.set.LongsHashSet;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
 
 public class CompactDeBruijnGraph extends AbstractDeBruijnGraph implements Writable, DeBruijnGraph {
+    public static final int SNAPSHOT_TYPE = 1;
+
     private BigLongsHashSet edges;
 
     public CompactDeBruijnGraph() {
@@ -57,6 +62,29 @@ public class CompactDeBruijnGraph extends AbstractDeBruijnGraph implements Writa
         setK(k);
     }
 
+    /**
+     * Saves graph in snapshot format, see {@link SnapshotWriter}.
+     */
+    public void writeSnapshot(File file) throws IOException {
+        SnapshotWriter out = new SnapshotWriter(file, SNAPSHOT_TYPE);
+        out.writeLong(k);
+        edges.writeSnapshot(out);
+        out.close();
+    }
+
+    /**
+     * Maps graph from snapshot file and uses it in place, graph becomes read-only.
+     */
+    public void readSnapshot(File file) throws IOException {
+        SnapshotReader in = new SnapshotReader(file, SNAPSHOT_TYPE);
+        try {
+            setK((int) in.readLong());
+            edges.readSnapshot(in);
+        } finally {
+            in.close();
+        }
+    }
+
     public boolean putEdge(long kmerHash) {
         return edges.put(kmerHash);
     }
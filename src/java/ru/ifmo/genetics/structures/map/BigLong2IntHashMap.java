@@ -1,6 +1,7 @@
 package ru.ifmo.genetics.structures.map;
 
 import org.apache.commons.lang.mutable.MutableLong;
+import ru.ifmo.genetics.structures.arrays.BigArrays;
 import ru.ifmo.genetics.structures.arrays.BigIntegerArray;
 import ru.ifmo.genetics.structures.set.BigLongsHashSet;
 
@@ -14,12 +15,12 @@ public class BigLong2IntHashMap implements Long2IntHashMap {
 
     public BigLong2IntHashMap() {
         keys = new BigLongsHashSet();
-        values = new BigIntegerArray();
+        values = BigArrays.newIntegerArray(0);
     }
 
     public BigLong2IntHashMap(long minCapacity, double loadFactor) {
         keys = new BigLongsHashSet(minCapacity, loadFactor);
-        values = new BigIntegerArray(keys.capacity());
+        values = BigArrays.newIntegerArray(keys.capacity());
     }
 
     /**
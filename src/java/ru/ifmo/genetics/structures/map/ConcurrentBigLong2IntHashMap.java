@@ -0,0 +1,134 @@
+package ru.ifmo.genetics.structures.map;
+
+import org.apache.commons.lang.mutable.MutableLong;
+import ru.ifmo.genetics.io.SnapshotReader;
+import ru.ifmo.genetics.io.SnapshotWriter;
+import ru.ifmo.genetics.structures.arrays.BigAtomicIntegerArray;
+import ru.ifmo.genetics.structures.set.ConcurrentBigLongsHashSet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Thread-safe analogue of {@link BigLong2IntHashMap}, keys are added by CAS,
+ * values can be set and incremented atomically.
+ */
+public class ConcurrentBigLong2IntHashMap implements Long2IntHashMap {
+    private ConcurrentBigLongsHashSet keys;
+    private BigAtomicIntegerArray values;
+
+    public ConcurrentBigLong2IntHashMap() {
+        keys = new ConcurrentBigLongsHashSet();
+        values = new BigAtomicIntegerArray();
+    }
+
+    public ConcurrentBigLong2IntHashMap(long minCapacity, double loadFactor) {
+        keys = new ConcurrentBigLongsHashSet(minCapacity, loadFactor);
+        values = new BigAtomicIntegerArray(keys.capacity());
+    }
+
+    /**
+     * @param memoryUsageBytes memory to be used for map
+     */
+    public ConcurrentBigLong2IntHashMap(long memoryUsageBytes) {
+        this(memoryUsageBytes / 12, 1);
+    }
+
+    @Override
+    public boolean contains(long v) {
+        return keys.contains(v);
+    }
+
+    public boolean containsAt(long i) {
+        return keys.containsAt(i);
+    }
+
+    @Override
+    public long keyAt(long i) {
+        assert 0 <= i && i < values.size();
+        return keys.elementAt(i);
+    }
+
+    @Override
+    public int valueAt(long i) {
+        assert i < values.size();
+        return i < 0 ? 0 : values.get(i);
+    }
+
+    @Override
+    public int get(long key) {
+        long i = getPosition(key);
+        return valueAt(i);
+    }
+
+    /**
+     * @return previous value
+     */
+    @Override
+    public int put(long key, int value) {
+        long i = keys.addAndGetPosition(key);
+        return values.set(i, value);
+    }
+
+    /**
+     * Atomically adds incr to the value of the key, absent keys have zero value.
+     * @return new value
+     */
+    public int add(long key, int incr) {
+        long i = keys.addAndGetPosition(key);
+        return values.addAndGet(i, incr);
+    }
+
+    @Override
+    public long size() {
+        return keys.size();
+    }
+
+    @Override
+    public long capacity() {
+        return keys.capacity();
+    }
+
+    @Override
+    public void reset() {
+        keys.reset();
+        values.reset(keys.capacity());
+    }
+
+    @Override
+    public long getPosition(long v) {
+        return keys.getPosition(v);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        keys.write(out);
+        values.write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        keys.readFields(in);
+        values.readFields(in);
+    }
+
+    public void writeSnapshot(SnapshotWriter out) throws IOException {
+        keys.writeSnapshot(out);
+        out.writeInts(values);
+    }
+
+    /**
+     * Uses arrays mapped from snapshot in place, map becomes read-only.
+     */
+    public void readSnapshot(SnapshotReader in) throws IOException {
+        keys.readSnapshot(in);
+        values = in.readAtomicInts();
+    }
+
+    @Override
+    public java.util.Iterator<MutableLong> iterator() {
+        return keys.iterator();
+    }
+
+}
@@ -3,6 +3,9 @@ package ru.ifmo.genetics.structures.set;
 import it.unimi.dsi.fastutil.HashCommon;
 import org.apache.commons.lang.mutable.MutableLong;
 import org.apache.log4j.Logger;
+import ru.ifmo.genetics.io.SnapshotReader;
+import ru.ifmo.genetics.io.SnapshotWriter;
+import ru.ifmo.genetics.structures.arrays.BigArrays;
 import ru.ifmo.genetics.structures.arrays.BigBooleanArray;
 import ru.ifmo.genetics.structures.arrays.BigLongArray;
 import ru.ifmo.genetics.utils.NumUtils;
@@ -29,8 +32,8 @@ public class BigLongsHashSet implements LongsHashSet {
     private int granulasNumber;
 
     public BigLongsHashSet() {
-        ar = new BigLongArray();
-        used = new BigBooleanArray();
+        ar = BigArrays.newLongArray(0);
+        used = BigArrays.newBooleanArray(0);
     }
     
     public BigLongsHashSet(long minCapacity, double loadFactor) {
@@ -42,8 +45,8 @@ public class BigLongsHashSet implements LongsHashSet {
 
         init((long) BigLongArray.smallCapacity * cnt);
 
-        ar = new BigLongArray(capacity);
-        used = new BigBooleanArray(capacity);
+        ar = BigArrays.newLongArray(capacity);
+        used = BigArrays.newBooleanArray(capacity);
 
     }
 
@@ -184,6 +187,27 @@ public class BigLongsHashSet implements LongsHashSet {
         used.readFields(in);
     }
 
+    public void writeSnapshot(SnapshotWriter out) throws IOException {
+        out.writeLong(size);
+        out.writeLong(capacity);
+
+        out.writeLongs(ar);
+        out.writeBooleans(used);
+    }
+
+    /**
+     * Uses arrays mapped from snapshot in place, set becomes read-only.
+     */
+    public void readSnapshot(SnapshotReader in) throws IOException {
+        size = in.readLong();
+        capacity = in.readLong();
+
+        init(capacity);
+
+        ar = in.readLongs();
+        used = in.readBooleans();
+    }
+
     public boolean containsAt(long i) {
         return used.get(i);
     }
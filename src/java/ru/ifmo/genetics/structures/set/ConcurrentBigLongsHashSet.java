@@ -0,0 +1,263 @@
+package ru.ifmo.genetics.structures.set;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import org.apache.commons.lang.mutable.MutableLong;
+import ru.ifmo.genetics.io.SnapshotReader;
+import ru.ifmo.genetics.io.SnapshotWriter;
+import ru.ifmo.genetics.structures.arrays.BigAtomicLongArray;
+import ru.ifmo.genetics.structures.arrays.BigLongArray;
+import ru.ifmo.genetics.utils.NumUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe open addressing hash set of longs, elements can be added concurrently. <br>
+ *
+ * Free cells contain {@link #FREE} value and are claimed by CAS, so no separate <code>used</code> array is needed.
+ * Element equal to {@link #FREE} is stored separately at the last position, <code>capacity() - 1</code>.
+ * Elements can't be removed.
+ */
+public class ConcurrentBigLongsHashSet implements LongsHashSet {
+    public static final long FREE = 0;
+
+    BigAtomicLongArray ar;
+    private final AtomicBoolean containsFree = new AtomicBoolean(false);
+
+    long tableSize;
+    private final AtomicLong size = new AtomicLong(0);
+
+    public ConcurrentBigLongsHashSet() {
+        ar = new BigAtomicLongArray();
+    }
+
+    public ConcurrentBigLongsHashSet(long minCapacity, double loadFactor) {
+        minCapacity = (long) (minCapacity / loadFactor);
+        minCapacity = Math.max(1, minCapacity);
+
+        int cnt = (int) Math.ceil(minCapacity / (double) BigLongArray.smallCapacity);
+        cnt = (int) NumUtils.highestBitsUpperBound(cnt, 3);
+
+        tableSize = (long) BigLongArray.smallCapacity * cnt;
+        ar = new BigAtomicLongArray(tableSize);
+    }
+
+    /**
+     * @param memoryUsage in bytes
+     */
+    public ConcurrentBigLongsHashSet(long memoryUsage) {
+        this(memoryUsage / 8, 1);
+    }
+
+    @Override
+    public boolean contains(long v) {
+        return getPosition(v) >= 0;
+    }
+
+    @Override
+    public boolean containsAt(long i) {
+        if (i == tableSize) {
+            return containsFree.get();
+        }
+        return ar.get(i) != FREE;
+    }
+
+    @Override
+    public boolean put(long v) {
+        return add(v) >= 0;
+    }
+
+    /**
+     * Adds element if it isn't in set yet.
+     * @return position of added element if it was added,
+     *          or <code>-(position + 1)</code> if element was already in set
+     */
+    public long add(long v) {
+        if (v == FREE) {
+            if (containsFree.compareAndSet(false, true)) {
+                size.incrementAndGet();
+                return tableSize;
+            }
+            return -tableSize - 1;
+        }
+
+        long pos = startPosition(v);
+        for (long probes = 0; probes < tableSize; ) {
+            long cur = ar.get(pos);
+            if (cur == v) {
+                return -pos - 1;
+            }
+            if (cur == FREE) {
+                if (ar.compareAndSet(pos, FREE, v)) {
+                    size.incrementAndGet();
+                    return pos;
+                }
+                // someone else has claimed this cell, checking it once more
+                continue;
+            }
+            pos++;
+            if (pos == tableSize) {
+                pos = 0;
+            }
+            probes++;
+        }
+        throw new IllegalStateException("Hash set is full, capacity = " + capacity());
+    }
+
+    /**
+     * Adds element if it isn't in set yet.
+     * @return position where element is stored
+     */
+    public long addAndGetPosition(long v) {
+        long i = add(v);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    @Override
+    public long getPosition(long v) {
+        if (v == FREE) {
+            return containsFree.get() ? tableSize : -1;
+        }
+
+        long pos = startPosition(v);
+        for (long probes = 0; probes < tableSize; probes++) {
+            long cur = ar.get(pos);
+            if (cur == v) {
+                return pos;
+            }
+            if (cur == FREE) {
+                return -1;
+            }
+            pos++;
+            if (pos == tableSize) {
+                pos = 0;
+            }
+        }
+        return -1;
+    }
+
+    private long startPosition(long v) {
+        long h = HashCommon.murmurHash3(v) & Long.MAX_VALUE;
+        return h % tableSize;
+    }
+
+    @Override
+    public long elementAt(long i) {
+        if (i == tableSize) {
+            return FREE;
+        }
+        return ar.get(i);
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * @return number of positions, including the one for {@link #FREE} element
+     */
+    @Override
+    public long capacity() {
+        return tableSize + 1;
+    }
+
+    /**
+     * Should not be called concurrently with other methods.
+     */
+    @Override
+    public void reset(long newCapacity) {
+        size.set(0);
+        containsFree.set(false);
+        if (newCapacity != capacity()) {
+            tableSize = newCapacity - 1;
+            ar.reset(tableSize);
+            return;
+        }
+
+        for (long i = 0; i < tableSize; i++) {
+            ar.set(i, FREE);
+        }
+    }
+
+    public void reset() {
+        reset(capacity());
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(size.get());
+        out.writeLong(tableSize);
+        out.writeBoolean(containsFree.get());
+
+        ar.write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        size.set(in.readLong());
+        tableSize = in.readLong();
+        containsFree.set(in.readBoolean());
+
+        ar.readFields(in);
+    }
+
+    public void writeSnapshot(SnapshotWriter out) throws IOException {
+        out.writeLong(size.get());
+        out.writeLong(tableSize);
+        out.writeLong(containsFree.get() ? 1 : 0);
+
+        out.writeLongs(ar);
+    }
+
+    /**
+     * Uses array mapped from snapshot in place, set becomes read-only.
+     */
+    public void readSnapshot(SnapshotReader in) throws IOException {
+        size.set(in.readLong());
+        tableSize = in.readLong();
+        containsFree.set(in.readLong() != 0);
+
+        ar = in.readAtomicLongs();
+    }
+
+    @Override
+    public java.util.Iterator<MutableLong> iterator() {
+        return new Iterator();
+    }
+
+    /**
+     * Iterates over all elements, the last one is {@link #FREE} if set contains it.
+     */
+    protected class Iterator implements java.util.Iterator<MutableLong> {
+        private long index = 0;
+        private MutableLong value = new MutableLong();
+
+        @Override
+        public boolean hasNext() {
+            while (index <= tableSize && !containsAt(index)) {
+                index++;
+            }
+            return index <= tableSize;
+        }
+
+        @Override
+        public MutableLong next() {
+            if (hasNext()) {
+                value.setValue(elementAt(index));
+                index++;
+                return value;
+            }
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -6,9 +6,11 @@ import ru.ifmo.genetics.tools.io.ToBinqConverter;
 import ru.ifmo.genetics.tools.transcriptome.BigComponentsDivider;
 import ru.ifmo.genetics.tools.transcriptome.ConnectedComponentsAssembler;
 import ru.ifmo.genetics.tools.transcriptome.SmallComponentsAssembler;
+import ru.ifmo.genetics.tools.transcriptome.StreamingComponentsAssembler;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
 import ru.ifmo.genetics.utils.tool.Parameter;
 import ru.ifmo.genetics.utils.tool.Tool;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.BoolParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileMVParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.IntParameterBuilder;
@@ -42,6 +44,12 @@ public class TranscriptomeAssembler extends Tool {
             .withDefaultValue(workDir.append("transcriptome"))
             .create());
 
+    public final Parameter<Boolean> streaming = addParameter(new BoolParameterBuilder("streaming")
+            .optional()
+            .withDescription("pass components between stages in memory, using disk only when memory is exhausted")
+            .withDefaultValue(false)
+            .create());
+
 
     public final ToBinqConverter converter = new ToBinqConverter();
     {
@@ -104,14 +112,25 @@ public class TranscriptomeAssembler extends Tool {
         addSubTool(smallTrAssembler);
     }
 
+    public final StreamingComponentsAssembler componentsStreamer = new StreamingComponentsAssembler();
+    {
+        setFix(componentsStreamer.kParameter, kParameter);
+        setFix(componentsStreamer.kmersFileFolder, kmerDumper.outputDir.get());
+        addSubTool(componentsStreamer);
+    }
+
     @Override
     protected void runImpl() throws ExecutionFailedException {
         addStep(converter);
         addStep(truncater);
         addStep(kmerDumper);
-        addStep(componentsSearcher);
-        addStep(bigTrDivider);
-        addStep(smallTrAssembler);
+        if (streaming.get()) {
+            addStep(componentsStreamer);
+        } else {
+            addStep(componentsSearcher);
+            addStep(bigTrDivider);
+            addStep(smallTrAssembler);
+        }
     }
 
     @Override
@@ -26,6 +26,10 @@ public class KmerLoadWorker implements Runnable {
 
     boolean interrupted = false;
 
+    // kmers waiting to be added to hm, null if kmers are added one by one
+    private long[] buffer;
+    private int buffered = 0;
+
     Random random;
 
     Logger logger;
@@ -65,7 +69,37 @@ public class KmerLoadWorker implements Runnable {
         }
 
         long key = kmer.toLong();
+        if (buffer != null) {
+            buffer[buffered++] = key;
+            if (buffered == buffer.length) {
+                flush();
+            }
+            return;
+        }
         hm.add(key, 1);
+        checkSize();
+    }
+
+    /**
+     * Enables batching mode: kmers are collected in thread-local buffer and are added to hm in bulk,
+     * size of hm is checked once per flush.
+     * @param size buffer size in kmers, 0 disables batching
+     */
+    public void setBufferSize(int size) {
+        buffer = (size > 0) ? new long[size] : null;
+        buffered = 0;
+    }
+
+    private void flush() {
+        if (buffered == 0) {
+            return;
+        }
+        hm.addAll(buffer, buffered);
+        buffered = 0;
+        checkSize();
+    }
+
+    private void checkSize() {
         if (hm.size() > maxSize) {
             long toAdd = random.nextInt(4);
             logger.debug("trim (" + toAdd + ")");
@@ -103,6 +137,7 @@ public class KmerLoadWorker implements Runnable {
 
             add(list);
         }
+        flush();
         latch.countDown();
     }
 
@@ -0,0 +1,178 @@
+package ru.ifmo.genetics.tools.ec;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import org.apache.log4j.Logger;
+import ru.ifmo.genetics.dna.DnaQ;
+import ru.ifmo.genetics.dna.kmers.Kmer;
+import ru.ifmo.genetics.dna.kmers.KmerIteratorFactory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Splits kmers of reads into bucket files by hash. <br>
+ *
+ * Kmers are canonical, so every kmer goes to exactly one bucket, and hashing keeps buckets balanced
+ * whatever prefixes are frequent in reads.
+ * Kmers are collected in thread-local buffer, which is sorted and written as (long kmer, int count) records,
+ * so every bucket can be counted independently by {@link ru.ifmo.genetics.io.readers.MappedKmerCountsReader}.
+ */
+public class KmerPartitionWorker implements Runnable {
+    private final DnaQReadDispatcher dispatcher;
+    private final CountDownLatch latch;
+    private final int LEN;
+    private final int bucketsBits;
+    private final KmerIteratorFactory<? extends Kmer> factory;
+
+    private final DataOutputStream[] buckets;
+
+    private final long[] buffer;
+    private int buffered = 0;
+
+    // records of current flush, one for every distinct kmer
+    private final long[] recordKmers;
+    private final int[] recordCounts;
+    private final int[] recordBuckets;
+    // the same records grouped by bucket
+    private final int[] bucketStarts;
+    private final long[] sortedKmers;
+    private final int[] sortedCounts;
+
+    boolean interrupted = false;
+    private volatile Exception failure;
+
+    Logger logger;
+
+    /**
+     * @param buckets 2^bucketsBits shared streams, writes to a stream are synchronized on it
+     */
+    public KmerPartitionWorker(DnaQReadDispatcher dispatcher, CountDownLatch latch, int LEN, int bucketsBits,
+                               DataOutputStream[] buckets, int bufferSize,
+                               KmerIteratorFactory<? extends Kmer> factory) {
+        assert buckets.length == 1 << bucketsBits;
+
+        this.dispatcher = dispatcher;
+        this.latch = latch;
+        this.LEN = LEN;
+        this.bucketsBits = bucketsBits;
+        this.buckets = buckets;
+        this.factory = factory;
+
+        buffer = new long[bufferSize];
+        recordKmers = new long[bufferSize];
+        recordCounts = new int[bufferSize];
+        recordBuckets = new int[bufferSize];
+        bucketStarts = new int[buckets.length + 1];
+        sortedKmers = new long[bufferSize];
+        sortedCounts = new int[bufferSize];
+    }
+
+    void add(DnaQ dnaq) throws IOException {
+        for (Kmer kmer : factory.kmersOf(dnaq, LEN)) {
+            buffer[buffered++] = kmer.toLong();
+            if (buffered == buffer.length) {
+                flush();
+            }
+        }
+    }
+
+    void flush() throws IOException {
+        if (buffered == 0) {
+            return;
+        }
+        Arrays.sort(buffer, 0, buffered);
+
+        // run-length merging
+        int n = 0;
+        int i = 0;
+        Arrays.fill(bucketStarts, 0);
+        while (i < buffered) {
+            long kmer = buffer[i];
+            int j = i + 1;
+            while (j < buffered && buffer[j] == kmer) {
+                ++j;
+            }
+            int bucket = bucketOf(kmer, bucketsBits);
+            recordKmers[n] = kmer;
+            recordCounts[n] = j - i;
+            recordBuckets[n] = bucket;
+            bucketStarts[bucket]++;
+            ++n;
+            i = j;
+        }
+        buffered = 0;
+
+        // counting sort by bucket
+        for (int b = 0, sum = 0; b <= buckets.length; ++b) {
+            int c = bucketStarts[b];
+            bucketStarts[b] = sum;
+            sum += c;
+        }
+        int[] pos = Arrays.copyOf(bucketStarts, buckets.length);
+        for (int r = 0; r < n; ++r) {
+            int p = pos[recordBuckets[r]]++;
+            sortedKmers[p] = recordKmers[r];
+            sortedCounts[p] = recordCounts[r];
+        }
+
+        for (int b = 0; b < buckets.length; ++b) {
+            int from = bucketStarts[b];
+            int to = bucketStarts[b + 1];
+            if (from == to) {
+                continue;
+            }
+            DataOutputStream out = buckets[b];
+            synchronized (out) {
+                for (int r = from; r < to; ++r) {
+                    out.writeLong(sortedKmers[r]);
+                    out.writeInt(sortedCounts[r]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the highest bits of the hash, as hash tables place kmers by the lowest bits of the same hash.
+     */
+    static int bucketOf(long kmer, int bucketsBits) {
+        if (bucketsBits == 0) {
+            return 0;
+        }
+        return (int) (HashCommon.murmurHash3(kmer) >>> (64 - bucketsBits));
+    }
+
+    public void interrupt() {
+        interrupted = true;
+    }
+
+    public void run() {
+        logger = Logger.getLogger("worker-" + Thread.currentThread().getId());
+        try {
+            while (!interrupted) {
+                List<DnaQ> list = dispatcher.getWorkRange();
+                if (list == null) {
+                    break;
+                }
+                for (DnaQ dnaq : list) {
+                    add(dnaq);
+                }
+            }
+            flush();
+        } catch (Exception e) {
+            logger.error("Splitting kmers failed", e);
+            failure = e;
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * @return exception thrown while splitting or null
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+}
@@ -1,11 +1,13 @@
 package ru.ifmo.genetics.tools.ec;
 
-import it.unimi.dsi.fastutil.longs.*;
 import org.apache.hadoop.io.IOUtils;
 import ru.ifmo.genetics.dna.kmers.KmerIteratorFactory;
 import ru.ifmo.genetics.dna.kmers.ShortKmerIteratorFactory;
-import ru.ifmo.genetics.structures.ArrayLong2IntHashMap;
+import ru.ifmo.genetics.io.readers.MappedKmerCountsReader;
+import ru.ifmo.genetics.structures.map.ConcurrentBigLong2IntHashMap;
 import ru.ifmo.genetics.tools.io.LazyBinqReader;
+import ru.ifmo.genetics.utils.FileUtils;
+import ru.ifmo.genetics.utils.KmerUtils;
 import ru.ifmo.genetics.utils.Misc;
 import ru.ifmo.genetics.utils.NumUtils;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
@@ -16,7 +18,6 @@ import ru.ifmo.genetics.utils.tool.values.InMemoryValue;
 import ru.ifmo.genetics.utils.tool.values.InValue;
 
 import java.io.*;
-import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 
 public class KmerStatisticsGatherer extends Tool {
@@ -24,6 +25,11 @@ public class KmerStatisticsGatherer extends Tool {
     public static final String DESCRIPTION = "differentiates good kmers from bad ones";
 
     static final int LOAD_TASK_SIZE = 1 << 15;
+    static final double TABLE_LOAD_FACTOR = 0.75;
+    static final int MAX_BUCKETS_PREFIX_LENGTH = 4;
+    static final int STREAM_BUFFER_SIZE = 1 << 16;
+    // (8 + 4) bytes per entry divided by load factor, table capacity is rounded up by at most 1/4
+    static final int TABLE_BYTES_PER_KMER = 20;
 
     public final Parameter<Integer> maximalBadFrequence = addParameter(new IntParameterBuilder("maximal-bad-frequence")
             .optional()
@@ -38,7 +44,21 @@ public class KmerStatisticsGatherer extends Tool {
     public final Parameter<Long> maxSize = addParameter(new LongParameterBuilder("max-size")
             .optional()
             .withDescription("maximal hashset size")
-            .withDefaultValue(NumUtils.highestBits(Misc.availableMemory() / 42, 3))
+            .withDefaultValue(defaultMaxSize())
+            .withDefaultComment("auto")
+            .create());
+
+    public final Parameter<Integer> partitionBufferSize = addParameter(new IntParameterBuilder("partition-buffer-size")
+            .optional()
+            .withDescription("number of kmers buffered by every loading thread before writing them to buckets, " +
+                    "every buffered kmer takes 36 bytes")
+            .withDefaultValue(1 << 18)
+            .create());
+
+    public final Parameter<Integer> bucketsPrefixLength = addParameter(new IntParameterBuilder("buckets-prefix-length")
+            .optional()
+            .withDescription("kmers are counted in 4^length buckets by hash and output to 4^length files by prefix, " +
+                    "chosen by input size and max-size if not set")
             .create());
 
     public final Parameter<File[]> inputFiles = addParameter(new FileMVParameterBuilder("reads")
@@ -90,8 +110,6 @@ public class KmerStatisticsGatherer extends Tool {
     public final InValue<File[]> badKmersFilesOut = addOutput("bad-kmers-files", badKmersFilesOutValue, File[].class);
 
     private int prefixLength;
-    private long prefix;
-    private long prefixMask;
 
     private int LEN;
     private long MASK;
@@ -100,7 +118,7 @@ public class KmerStatisticsGatherer extends Tool {
     private long totalGood = 0;
     private long totalBad = 0;
 
-    private final static Random random = new Random(1989);
+    private ConcurrentBigLong2IntHashMap table;
 
     @Override
     protected void runImpl() throws ExecutionFailedException {
@@ -112,23 +130,55 @@ public class KmerStatisticsGatherer extends Tool {
 
         debug("MAXIMAL_SIZE = " + MAX_SIZE);
 
-        ArrayLong2IntHashMap hm = null;
+        String workdir = outputDir.get().getAbsolutePath();
+        try {
+            prefixLength = (bucketsPrefixLength.get() != null) ? bucketsPrefixLength.get()
+                    : choosePrefixLength(FileUtils.filesSize(inputFiles.get()));
+        } catch (IOException e) {
+            throw new ExecutionFailedException(e);
+        }
+        int maxPrefix = 1 << (2 * prefixLength);
+
+        File[] buckets = new File[maxPrefix];
+        File[] countsFiles = new File[maxPrefix];
+        for (int cp = 0; cp < maxPrefix; ++cp) {
+            buckets[cp] = new File(workdir + File.separator + "kmers" + cp + ".bucket");
+            countsFiles[cp] = new File(workdir + File.separator + "kmers" + Misc.getString(cp, prefixLength) + ".counts");
+        }
+
+        info("Splitting kmers into " + maxPrefix + " buckets...");
         try {
-            hm = load(inputFiles.get(), MAX_SIZE);
+            partition(inputFiles.get(), buckets);
         } catch (IOException e) {
             throw new ExecutionFailedException("Couldn't load kmers", e);
         }
 
+        // buckets are counted one by one, every bucket is loaded in parallel
         int[] stat = new int[256];
-        for (int i = 0; i < hm.hm.length; ++i) {
-            for (long key : hm.hm[i].keySet()) {
-                int b = hm.hm[i].get(key);
-                if (b >= stat.length) {
-                    b = stat.length - 1;
-                }
-                ++stat[b];
+        try {
+            DataOutputStream[] countsOuts = new DataOutputStream[maxPrefix];
+            for (int cp = 0; cp < maxPrefix; ++cp) {
+                countsOuts[cp] = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(countsFiles[cp]), STREAM_BUFFER_SIZE));
+            }
+            for (int b = 0; b < maxPrefix; ++b) {
+                count(buckets[b]);
+                debug("bucket " + b + ": " + table.size() + " kmers");
+                dumpCounts(table, countsOuts, stat);
+                buckets[b].delete();
+            }
+            for (DataOutputStream out : countsOuts) {
+                out.close();
             }
+        } catch (IOException e) {
+            throw new ExecutionFailedException("Couldn't count kmers", e);
+        } catch (InterruptedException e) {
+            throw new ExecutionFailedException(e);
+        } catch (ru.ifmo.genetics.executors.ExecutionFailedException e) {
+            throw new ExecutionFailedException("Couldn't count kmers, try to set smaller max-size " +
+                    "or greater buckets-prefix-length", e);
         }
+        table = null;
 
         try {
             dumpStat(stat, workDir + File.separator + "distribution");
@@ -146,32 +196,22 @@ public class KmerStatisticsGatherer extends Tool {
             }
         }
         info("threshold = " + threshold);
-        if (prefixLength != 0) {
-            hm = null;
-        }
-
-        long maxPrefix = 1L << (2 * prefixLength);
-        String workdir = outputDir.get().getAbsolutePath();
 
-        goodKmersFilesOutValue.set(new File[(int)maxPrefix]);
-        badKmersFilesOutValue.set(new File[(int)maxPrefix]);
+        goodKmersFilesOutValue.set(new File[maxPrefix]);
+        badKmersFilesOutValue.set(new File[maxPrefix]);
 
         try {
             PrintWriter pw = new PrintWriter(prefixesFile.get());
-            for (long cp = 0; cp < maxPrefix; ++cp) {
-
-                long curPrefix = cp << (2 * (LEN - prefixLength));
+            for (int cp = 0; cp < maxPrefix; ++cp) {
                 pw.println(Misc.getString(cp, prefixLength));
                 info("processing prefix: \"" + Misc.getString(cp, prefixLength) + "\"");
 
-                ArrayLong2IntHashMap kmers = (prefixLength == 0) ? hm : load(inputFiles.get(), Long.MAX_VALUE, curPrefix, prefixMask, prefixLength);
-                debug("loaded " + kmers.size() + " kmers");
-
                 String goodFile = workdir + File.separator + "kmers" + Misc.getString(cp, prefixLength) + ".good";
-                goodKmersFilesOutValue.get()[(int)cp] = new File(goodFile);
+                goodKmersFilesOutValue.get()[cp] = new File(goodFile);
                 String badFile = workdir + File.separator + "kmers" + Misc.getString(cp, prefixLength) + ".bad";
-                badKmersFilesOutValue.get()[(int)cp] = new File(badFile);
-                dumpKmers(kmers.hm, threshold, goodFile, badFile);
+                badKmersFilesOutValue.get()[cp] = new File(badFile);
+                dumpKmers(countsFiles[cp], threshold, goodFile, badFile);
+                countsFiles[cp].delete();
 
                 debug(Misc.getString(cp, prefixLength) + " done");
             }
@@ -187,6 +227,7 @@ public class KmerStatisticsGatherer extends Tool {
 
     @Override
     protected void clean() {
+        table = null;
     }
 
     public static void main(String[] args) {
@@ -197,22 +238,49 @@ public class KmerStatisticsGatherer extends Tool {
         super(NAME, DESCRIPTION);
     }
 
-    ArrayLong2IntHashMap load(File[] files, long maxSize) throws IOException {
-        return load(files, maxSize, 0, 0, 0);
+    /**
+     * Memory for the table of one bucket is what is left after buffers of the counting stage:
+     * output streams for all prefixes and batches of {@link MappedKmerCountsReader} for all threads.
+     * Buffers of the partitioning stage are freed before the first table is allocated.
+     */
+    static long defaultMaxSize() {
+        long buffers = (1L << (2 * MAX_BUCKETS_PREFIX_LENGTH)) * STREAM_BUFFER_SIZE
+                + (long) Runtime.getRuntime().availableProcessors()
+                        * MappedKmerCountsReader.BATCH_SIZE * 2 * MappedKmerCountsReader.RECORD_SIZE;
+        return NumUtils.highestBits((Misc.availableMemory() - buffers) / TABLE_BYTES_PER_KMER, 3);
     }
 
-    ArrayLong2IntHashMap load(File[] files, long maxSize, long prefix, long prefixMask, int prefixLength) throws IOException {
+    /**
+     * Every input byte gives at most one kmer occurrence, and every kmer goes to one bucket,
+     * so buckets are chosen to have at most MAX_SIZE occurrences on average.
+     */
+    int choosePrefixLength(long inputSize) {
+        int length = 0;
+        while (length < MAX_BUCKETS_PREFIX_LENGTH && (inputSize >> (2 * length)) > MAX_SIZE) {
+            ++length;
+        }
+        return length;
+    }
 
-        ArrayLong2IntHashMap hm = new ArrayLong2IntHashMap((int)(Math.log(availableProcessors.get()) / Math.log(2)) + 4);
-        LazyBinqReader reader = new LazyBinqReader(files);
+    /**
+     * Reads input files once and splits kmers into bucket files by hash,
+     * bucket files contain (long kmer, int count) records.
+     */
+    void partition(File[] files, File[] buckets) throws IOException {
+        DataOutputStream[] outs = new DataOutputStream[buckets.length];
+        for (int i = 0; i < buckets.length; ++i) {
+            outs[i] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(buckets[i]), STREAM_BUFFER_SIZE));
+        }
 
+        LazyBinqReader reader = new LazyBinqReader(files);
         DnaQReadDispatcher dispatcher = new DnaQReadDispatcher(reader, LOAD_TASK_SIZE);
-        KmerLoadWorker[] workers = new KmerLoadWorker[availableProcessors.get()];
+        KmerPartitionWorker[] workers = new KmerPartitionWorker[availableProcessors.get()];
         CountDownLatch latch = new CountDownLatch(workers.length);
 
         for (int i = 0; i < workers.length; ++i) {
-            workers[i] = new KmerLoadWorker(dispatcher, latch, new Random(42),
-                    LEN, maxSize, hm, prefix, prefixMask, prefixLength, kmerIteratorFactory.get());
+            workers[i] = new KmerPartitionWorker(dispatcher, latch, LEN, 2 * prefixLength, outs,
+                    partitionBufferSize.get(), kmerIteratorFactory.get());
             new Thread(workers[i]).start();
         }
 
@@ -220,44 +288,98 @@ public class KmerStatisticsGatherer extends Tool {
             latch.await();
         } catch (InterruptedException e) {
             warn("Main thread interrupted");
-            for (KmerLoadWorker worker : workers) {
+            for (KmerPartitionWorker worker : workers) {
                 worker.interrupt();
             }
         }
+        for (DataOutputStream out : outs) {
+            out.close();
+        }
+        for (KmerPartitionWorker worker : workers) {
+            if (worker.getFailure() != null) {
+                throw new IOException("Kmers splitting failed", worker.getFailure());
+            }
+        }
         info("loaded");
 
-        this.prefix = workers[0].prefix;
-        this.prefixMask = workers[0].prefixMask;
-        this.prefixLength = workers[0].prefixLength;
-
         readsNumberOutValue.set(dispatcher.reads);
+    }
 
-        return hm;
+    /**
+     * Counts kmers of the bucket in a new table, sized by the number of records in the bucket
+     * (but not greater than for MAX_SIZE kmers).
+     */
+    void count(File bucket) throws IOException, InterruptedException {
+        long records = bucket.length() / MappedKmerCountsReader.RECORD_SIZE;
+        table = null;
+        table = new ConcurrentBigLong2IntHashMap(Math.min(records, MAX_SIZE), TABLE_LOAD_FACTOR);
+        MappedKmerCountsReader.readAll(new File[]{bucket}, availableProcessors.get(),
+                new MappedKmerCountsReader.BatchHandler() {
+                    @Override
+                    public void handle(long[] kmers, int[] counts, int n) {
+                        for (int i = 0; i < n; ++i) {
+                            table.add(kmers[i], counts[i]);
+                        }
+                    }
+                });
     }
 
-    void dumpKmers(Long2IntMap[] hm, int threshold, String goodFile, String badFile) throws IOException {
+    /**
+     * Appends (long kmer, int count) records of the bucket to counts files of prefixes of both kmer strands,
+     * as cleaner looks for fixes of a kmer among kmers of the same prefix, and adds kmers to statistics.
+     */
+    void dumpCounts(ConcurrentBigLong2IntHashMap hm, DataOutputStream[] countsOuts, int[] stat) throws IOException {
+        for (long i = 0; i < hm.capacity(); ++i) {
+            if (!hm.containsAt(i)) {
+                continue;
+            }
+            long key = hm.keyAt(i);
+            int value = hm.valueAt(i);
+            int fwPrefix = prefixOf(key);
+            int rcPrefix = prefixOf(KmerUtils.reverseComplement(key, LEN));
+            countsOuts[fwPrefix].writeLong(key);
+            countsOuts[fwPrefix].writeInt(value);
+            if (rcPrefix != fwPrefix) {
+                countsOuts[rcPrefix].writeLong(key);
+                countsOuts[rcPrefix].writeInt(value);
+            }
+            stat[Math.min(value, stat.length - 1)]++;
+        }
+    }
+
+    private int prefixOf(long kmer) {
+        if (prefixLength == 0) {
+            return 0;
+        }
+        return (int) (kmer >>> (2 * (LEN - prefixLength)));
+    }
+
+    void dumpKmers(File countsFile, int threshold, String goodFile, String badFile) throws IOException {
         DataOutputStream good = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(goodFile)));
         DataOutputStream bad = new DataOutputStream(new IOUtils.NullOutputStream());
         if (!ignoreBadKmers.get()) {
             bad = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(badFile)));
         }
         boolean outputValues = outputCounts.get();
-        for (Long2IntMap map : hm) {
-            for (Long2IntMap.Entry e: map.long2IntEntrySet()) {
-                DataOutputStream out;
-                if (e.getIntValue() <= threshold) {
-                    out = bad;
-                    ++totalBad;
-                } else {
-                    out = good;
-                    ++totalGood;
-                }
-                out.writeLong(e.getLongKey());
-                if (outputValues) {
-                    out.writeInt(e.getIntValue());
-                }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(countsFile)));
+        long records = countsFile.length() / MappedKmerCountsReader.RECORD_SIZE;
+        for (long i = 0; i < records; ++i) {
+            long key = in.readLong();
+            int value = in.readInt();
+            DataOutputStream out;
+            if (value <= threshold) {
+                out = bad;
+                ++totalBad;
+            } else {
+                out = good;
+                ++totalGood;
+            }
+            out.writeLong(key);
+            if (outputValues) {
+                out.writeInt(value);
             }
         }
+        in.close();
         good.close();
         bad.close();
     }
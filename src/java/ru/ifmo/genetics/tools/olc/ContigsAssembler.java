@@ -10,12 +10,15 @@ import ru.ifmo.genetics.tools.olc.optimizer.OverlapsSlicer;
 import ru.ifmo.genetics.tools.olc.overlapper.Overlapper;
 import ru.ifmo.genetics.tools.olc.suffixArray.BucketsDivider;
 import ru.ifmo.genetics.tools.olc.suffixArray.BucketsSorter;
+import ru.ifmo.genetics.tools.olc.suffixArray.SuffixArrayBuilder;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
 import ru.ifmo.genetics.utils.tool.Parameter;
 import ru.ifmo.genetics.utils.tool.Tool;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.BoolParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileMVParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileParameterBuilder;
 import ru.ifmo.genetics.utils.tool.values.FilesFromOneFileYielder;
+import ru.ifmo.genetics.utils.tool.values.IfYielder;
 import ru.ifmo.genetics.utils.tool.values.ListFilesYielder;
 
 import java.io.File;
@@ -38,6 +41,12 @@ public class ContigsAssembler extends Tool {
             .withDescription("file with assembled contigs")
             .create());
 
+    public final Parameter<Boolean> inducedSorting = addParameter(new BoolParameterBuilder("induced-sorting")
+            .optional()
+            .withDefaultValue(false)
+            .withDescription("build suffix array in memory by induced sorting instead of dividing and sorting buckets")
+            .create());
+
 
     // internal variables
     public Thinner thinner = new Thinner();
@@ -69,12 +78,23 @@ public class ContigsAssembler extends Tool {
         addSubTool(sorter);
     }
 
+    public SuffixArrayBuilder saBuilder = new SuffixArrayBuilder();
+    {
+        setFix(saBuilder.fullStringFile, gluer.fullStringFile);
+        setFix(saBuilder.bucketCharsNumberIn, divider.bucketCharsNumberIn);
+        setFixDefault(saBuilder.sortedBucketsDir);
+        addSubTool(saBuilder);
+    }
+
     public Overlapper overlapper = new Overlapper();
     {
         setFix(overlapper.fullStringFile, gluer.fullStringFile);
-        setFix(overlapper.sortedBucketsDir, sorter.sortedBucketsDir);
-        setFix(overlapper.bucketCharsNumberIn, divider.bucketCharsNumberOut);
-        setFix(overlapper.bucketsNumberIn, divider.bucketsNumberOut);
+        setFix(overlapper.sortedBucketsDir,
+                new IfYielder<File>(inducedSorting, saBuilder.sortedBucketsDir, sorter.sortedBucketsDir));
+        setFix(overlapper.bucketCharsNumberIn,
+                new IfYielder<Integer>(inducedSorting, saBuilder.bucketCharsNumberOut, divider.bucketCharsNumberOut));
+        setFix(overlapper.bucketsNumberIn,
+                new IfYielder<Integer>(inducedSorting, saBuilder.bucketsNumberOut, divider.bucketsNumberOut));
         setFixDefault(overlapper.overlapsDir);
         addSubTool(overlapper);
     }
@@ -133,8 +153,12 @@ public class ContigsAssembler extends Tool {
     protected void runImpl() throws ExecutionFailedException {
         addStep(thinner);
         addStep(gluer);
-        addStep(divider);
-        addStep(sorter);
+        if (inducedSorting.get()) {
+            addStep(saBuilder);
+        } else {
+            addStep(divider);
+            addStep(sorter);
+        }
         addStep(overlapper);
         addStep(remover);
         addStep(slicer);
@@ -1,9 +1,11 @@
 package ru.ifmo.genetics.tools.olc.arrays;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 
-import static ru.ifmo.genetics.tools.olc.arrays.Util.read5ByteFromStream;
-import static ru.ifmo.genetics.tools.olc.arrays.Util.write5ByteToStream;
+import static ru.ifmo.genetics.tools.olc.arrays.Util.*;
 
 public class FiveByteArray {
     private static final long MAX_VALUE = (1L << 40) - 1;
@@ -15,6 +17,13 @@ public class FiveByteArray {
     private byte[] arrayHigh;
     private int[] arrayLow;
 
+    // used instead of arrays in mapped mode
+    private static final int MAPPED_CHUNK_SHIFT = 28;
+    private static final int MAPPED_CHUNK_LEN = 1 << MAPPED_CHUNK_SHIFT;
+    private static final int MAPPED_CHUNK_MASK = MAPPED_CHUNK_LEN - 1;
+    private ByteBuffer mappedHigh;
+    private IntBuffer[] mappedLow;
+
     /**
      * Supposing (0 <= lenght <= Integer.MAX_VALUE)
      */
@@ -28,9 +37,17 @@ public class FiveByteArray {
     }
     
     public FiveByteArray(FiveByteArray other) {
-        arrayHigh = other.arrayHigh.clone();
-        arrayLow = other.arrayLow.clone();
         length = other.length;
+        if (other.isMapped()) {
+            arrayHigh = new byte[length];
+            arrayLow = new int[length];
+            for (int i = 0; i < length; i++) {
+                set(i, other.get(i));
+            }
+        } else {
+            arrayHigh = other.arrayHigh.clone();
+            arrayLow = other.arrayLow.clone();
+        }
     }
     
     /**
@@ -39,30 +56,73 @@ public class FiveByteArray {
     public FiveByteArray(String filename) throws IOException {
         // reading high array
         FileInputStream fileIn = new FileInputStream(filename + ".high");
-        DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn));
-        long len = fileIn.getChannel().size();
+        FileChannel channel = fileIn.getChannel();
+        long len = channel.size();
         if (len > Integer.MAX_VALUE) {
             throw new RuntimeException("Unsupported array length!");
         }
         length = (int) len;
         
         arrayHigh = new byte[length];
-        in.read(arrayHigh);
-        in.close();
+        readFully(channel, ByteBuffer.wrap(arrayHigh));
+        fileIn.close();
         
         // reading low array
         fileIn = new FileInputStream(filename + ".low");
-        in = new DataInputStream(new BufferedInputStream(fileIn));
-        len = fileIn.getChannel().size();
+        channel = fileIn.getChannel();
+        len = channel.size();
         if (len != 4L * length) {
             throw new RuntimeException("High and low arrays have different length!");
         }
         
         arrayLow = new int[length];
-        for (int i = 0; i < length; i++) {
-            arrayLow[i] = in.readInt();
+        ByteBuffer buf = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        for (int i = 0; i < length; ) {
+            int n = Math.min(length - i, IO_BUFFER_SIZE / 4);
+            buf.clear();
+            buf.limit(4 * n);
+            readFully(channel, buf);
+            buf.flip();
+            buf.asIntBuffer().get(arrayLow, i, n);
+            i += n;
         }
-        in.close();
+        fileIn.close();
+    }
+
+    /**
+     * Maps array saved in high/low format to memory without loading it to the heap. <br>
+     * Returned array is read-only, its pages are loaded by OS on demand.
+     */
+    public static FiveByteArray map(String filename) throws IOException {
+        return new FiveByteArray(filename, true);
+    }
+
+    private FiveByteArray(String filename, boolean readOnly) throws IOException {
+        RandomAccessFile highFile = new RandomAccessFile(filename + ".high", "r");
+        long len = highFile.length();
+        if (len > Integer.MAX_VALUE) {
+            throw new RuntimeException("Unsupported array length!");
+        }
+        length = (int) len;
+        mappedHigh = highFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        highFile.close();
+
+        RandomAccessFile lowFile = new RandomAccessFile(filename + ".low", "r");
+        if (lowFile.length() != 4L * length) {
+            throw new RuntimeException("High and low arrays have different length!");
+        }
+        FileChannel channel = lowFile.getChannel();
+        mappedLow = new IntBuffer[(length >> MAPPED_CHUNK_SHIFT) + 1];
+        for (int i = 0; i < mappedLow.length; i++) {
+            long from = (long) i << MAPPED_CHUNK_SHIFT;
+            long size = Math.min(length - from, MAPPED_CHUNK_LEN);
+            mappedLow[i] = channel.map(FileChannel.MapMode.READ_ONLY, 4 * from, 4 * size).asIntBuffer();
+        }
+        lowFile.close();
+    }
+
+    public boolean isMapped() {
+        return arrayLow == null;
     }
     
     /**
@@ -70,16 +130,35 @@ public class FiveByteArray {
      */
     public void save(String filename) throws IOException {
         // writing high array
-        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename + ".high")));
-        out.write(arrayHigh);
-        out.close();
+        FileOutputStream fileOut = new FileOutputStream(filename + ".high");
+        FileChannel channel = fileOut.getChannel();
+        if (isMapped()) {
+            writeFully(channel, mappedHigh.duplicate());
+        } else {
+            writeFully(channel, ByteBuffer.wrap(arrayHigh));
+        }
+        fileOut.close();
 
         // writing low array
-        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename + ".low")));
-        for (int v : arrayLow) {
-            out.writeInt(v);
+        fileOut = new FileOutputStream(filename + ".low");
+        channel = fileOut.getChannel();
+        ByteBuffer buf = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        for (int i = 0; i < length; ) {
+            int n = Math.min(length - i, IO_BUFFER_SIZE / 4);
+            buf.clear();
+            IntBuffer ib = buf.asIntBuffer();
+            if (isMapped()) {
+                for (int j = 0; j < n; j++) {
+                    ib.put(getLow(i + j));
+                }
+            } else {
+                ib.put(arrayLow, i, n);
+            }
+            buf.limit(4 * n);
+            writeFully(channel, buf);
+            i += n;
         }
-        out.close();
+        fileOut.close();
     }
     
 
@@ -97,18 +176,16 @@ public class FiveByteArray {
         arrayLow = new int[length];
         
         long xor = 0;
-        for (int i = 0; i < length; i++) {
-            long value = read5ByteFromStream(is);
-            
-            // Inline set method
-
-            //        if (value < 0 || value > MAX_VALUE) {
-            //            throw new AssertionError("Value " + value + " unsupported");
-            //        }
-            arrayHigh[i] = (byte) (value >> 32);
-            arrayLow[i] = (int) value;
-            
-            xor ^= value;
+        byte[] buf = new byte[IO_BUFFER_SIZE];
+        for (int i = 0; i < length; ) {
+            int n = Math.min(length - i, IO_BUFFER_SIZE / 5);
+            readFully(is, buf, 5 * n);
+            for (int j = 0; j < n; j++, i++) {
+                long value = get5Byte(buf, 5 * j);
+                arrayHigh[i] = (byte) (value >> 32);
+                arrayLow[i] = (int) value;
+                xor ^= value;
+            }
         }
         
         long checksum = read5ByteFromStream(is);
@@ -124,10 +201,15 @@ public class FiveByteArray {
         write5ByteToStream(os, length);
         
         long xor = 0;
-        for (int i = 0; i < length; i++) {
-            long value = get(i);
-            write5ByteToStream(os, value);
-            xor ^= value;
+        byte[] buf = new byte[IO_BUFFER_SIZE];
+        for (int i = 0; i < length; ) {
+            int n = Math.min(length - i, IO_BUFFER_SIZE / 5);
+            for (int j = 0; j < n; j++, i++) {
+                long value = get(i);
+                put5Byte(buf, 5 * j, value);
+                xor ^= value;
+            }
+            os.write(buf, 0, 5 * n);
         }
         
         write5ByteToStream(os, xor);
@@ -135,12 +217,24 @@ public class FiveByteArray {
 
     
     public long get(int index) {
+        if (arrayLow == null) {
+            long h = mappedHigh.get(index) & HIGH_MASK;
+            long l = getLow(index) & LOW_MASK;
+            return (h << 32) | l;
+        }
         long h = arrayHigh[index] & HIGH_MASK;
         long l = arrayLow[index] & LOW_MASK;
         return (h << 32) | l;
     }
 
+    private int getLow(int index) {
+        return mappedLow[index >> MAPPED_CHUNK_SHIFT].get(index & MAPPED_CHUNK_MASK);
+    }
+
     public void set(int index, long value) {
+        if (arrayLow == null) {
+            throw new UnsupportedOperationException("Mapped array is read-only");
+        }
 //        if (value < 0 || value > MAX_VALUE) {
 //            throw new AssertionError("Value " + value + " unsupported");
 //        }
@@ -5,8 +5,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 
-import static ru.ifmo.genetics.tools.olc.arrays.Util.read5ByteFromStream;
-import static ru.ifmo.genetics.tools.olc.arrays.Util.write5ByteToStream;
+import static ru.ifmo.genetics.tools.olc.arrays.Util.*;
 
 public class Large5ByteArray {
     // TODO use one big array
@@ -29,10 +28,15 @@ public class Large5ByteArray {
         length = read5ByteFromStream(is);
         initArray(length);
         long xor = 0;
-        for (long i = 0; i < length; i++) {
-            long value = read5ByteFromStream(is);
-            xor ^= value;
-            set(i, value);
+        byte[] buf = new byte[IO_BUFFER_SIZE];
+        for (long i = 0; i < length; ) {
+            int n = (int) Math.min(length - i, IO_BUFFER_SIZE / 5);
+            readFully(is, buf, 5 * n);
+            for (int j = 0; j < n; j++, i++) {
+                long value = get5Byte(buf, 5 * j);
+                xor ^= value;
+                set(i, value);
+            }
         }
         long checksum = read5ByteFromStream(is);
         if (xor != checksum) {
@@ -46,10 +50,15 @@ public class Large5ByteArray {
     public void save(OutputStream os) throws IOException {
         write5ByteToStream(os, length);
         long xor = 0;
-        for (long i = 0; i < length; i++) {
-            long value = get(i);
-            xor ^= value;
-            write5ByteToStream(os, value);
+        byte[] buf = new byte[IO_BUFFER_SIZE];
+        for (long i = 0; i < length; ) {
+            int n = (int) Math.min(length - i, IO_BUFFER_SIZE / 5);
+            for (int j = 0; j < n; j++, i++) {
+                long value = get(i);
+                xor ^= value;
+                put5Byte(buf, 5 * j, value);
+            }
+            os.write(buf, 0, 5 * n);
         }
         write5ByteToStream(os, xor);
     }
@@ -60,11 +69,6 @@ public class Large5ByteArray {
     }
 
     private void initArray(long size) {
-        int f1 = (int) (size >> FIRST_SHIFT) + 1;
-        int f2 = (int) (SECOND_MASK) + 1;
-        arrayHigh = new byte[f1][f2];
-        arrayLow = new int[f1][f2];
-        
         int c = (int) (size / SMALL_ARRAY_LEN);
         int r = (int) (size % SMALL_ARRAY_LEN);
         
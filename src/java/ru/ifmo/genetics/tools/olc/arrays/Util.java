@@ -4,8 +4,15 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class Util {
+    /**
+     * Size of buffers used for bulk reading and writing, in bytes. Divisible by 4, 5 and 8.
+     */
+    static final int IO_BUFFER_SIZE = 40 << 15;
+
     public static void write5ByteToStream(OutputStream os, long value) throws IOException {
         for (int j = 4; j >= 0; j--) {
             os.write((byte) (value >> (8 * j)));
@@ -22,4 +29,44 @@ public class Util {
         }
         return res;
     }
+
+    static long get5Byte(byte[] buf, int offset) {
+        long res = 0;
+        for (int j = 0; j < 5; j++) {
+            res = (res << 8) | (buf[offset + j] & 0xFF);
+        }
+        return res;
+    }
+
+    static void put5Byte(byte[] buf, int offset, long value) {
+        for (int j = 4; j >= 0; j--) {
+            buf[offset++] = (byte) (value >> (8 * j));
+        }
+    }
+
+    static void readFully(InputStream is, byte[] buf, int len) throws IOException {
+        int pos = 0;
+        while (pos < len) {
+            int read = is.read(buf, pos, len - pos);
+            if (read == -1)
+                throw new EOFException();
+            pos += read;
+        }
+    }
+
+    /**
+     * Reads from channel until buffer is full.
+     */
+    static void readFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) == -1)
+                throw new EOFException();
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
 }
@@ -5,11 +5,12 @@ import ru.ifmo.genetics.dna.DnaTools;
 import ru.ifmo.genetics.dna.LightDna;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class Consensus {
     private final double percentForElect;
     private final int minimalCoverage;
-    private final ArrayList<Dna> reads;
+    private final List<? extends LightDna> reads;
     private final ArrayList<NucleotideConsensus> arPositive = new ArrayList<NucleotideConsensus>();
     private final ArrayList<NucleotideConsensus> arNegative = new ArrayList<NucleotideConsensus>();
     private int layersNumber = 0;
@@ -18,13 +19,13 @@ public class Consensus {
     private int negativeSize = 0;
 
 
-    public Consensus(ArrayList<Dna> reads, double percentForElect, int minimalCoverage) {
+    public Consensus(List<? extends LightDna> reads, double percentForElect, int minimalCoverage) {
         this.percentForElect = percentForElect;
         this.minimalCoverage = minimalCoverage;
         this.reads = reads;
     }
 
-    public Consensus(ArrayList<Dna> reads, double percentForElect) {
+    public Consensus(List<? extends LightDna> reads, double percentForElect) {
         this(reads, percentForElect, NucleotideConsensus.DEFAULT_MINIMAL_COVERAGE);
     }
 
@@ -1,14 +1,16 @@
 package ru.ifmo.genetics.tools.olc.layouter;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.util.LineReader;
 import ru.ifmo.genetics.dna.Dna;
 import ru.ifmo.genetics.dna.DnaView;
 import ru.ifmo.genetics.dna.LightDna;
+import ru.ifmo.genetics.executors.BlockingThreadPoolExecutor;
 import ru.ifmo.genetics.io.readers.ReaderInSmallMemory;
-import ru.ifmo.genetics.io.readers.ReadsPlainReader;
 import ru.ifmo.genetics.tools.microassembly.FilledHole;
-import ru.ifmo.genetics.utils.pairs.MutablePair;
+import ru.ifmo.genetics.tools.olc.reads.PackedReads;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
 import ru.ifmo.genetics.utils.tool.Parameter;
 import ru.ifmo.genetics.utils.tool.Tool;
@@ -16,10 +18,10 @@ import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.IntParameterBuilder;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 
 import static ru.ifmo.genetics.utils.NumUtils.groupDigits;
 
@@ -57,9 +59,19 @@ public class ConsensusMaker extends Tool {
             .create());
 
 
+    // constants
+    private static final int LAYOUTS_IN_FLIGHT_PER_THREAD = 16;
+
     // internal variables
     private int readsNumber;
-    private ArrayList<Dna> reads;
+    private PackedReads reads;
+
+    /**
+     * <code>fillers[i]</code> = fillers of holes ending at read i, null if there are no such holes.
+     */
+    private ShiftedFiller[][] fillers;
+    private LightDna[] prependix;
+    private LightDna[] appendix;
 
 
     @Override
@@ -76,7 +88,7 @@ public class ConsensusMaker extends Tool {
 
     private void loadReads() throws IOException, InterruptedException {
         info("Loading reads...");
-        reads = ReadsPlainReader.loadReadsAndAddRC(readsFile.get().toString());
+        reads = PackedReads.load(readsFile.get());
         readsNumber = reads.size();
     }
 
@@ -92,16 +104,71 @@ public class ConsensusMaker extends Tool {
         }
     }
 
-    private void makeConsensus() throws IOException {
+    /**
+     * Makes consensus for all layouts. <br>
+     *
+     * Layouts are parsed in this thread, consensuses are made by a thread pool,
+     * and contigs are written by a separate thread in the order of layouts.
+     */
+    private void makeConsensus() throws IOException, InterruptedException, ExecutionFailedException {
         info("Making consensus...");
 
-        Map<Integer, ArrayList<ShiftedFiller>> fillersMap = new HashMap<Integer, ArrayList<ShiftedFiller>>();
-        for (int i = 0; i < readsNumber; ++i) {
-            fillersMap.put(i, new ArrayList<ShiftedFiller>());
+        loadHoles();
+
+        int threads = availableProcessors.get();
+        BlockingQueue<ConsensusTask> tasksToWrite =
+                new ArrayBlockingQueue<ConsensusTask>(LAYOUTS_IN_FLIGHT_PER_THREAD * threads);
+        ContigsWriter writer = new ContigsWriter(new PrintWriter(contigsFile.get()), tasksToWrite);
+        Thread writerThread = new Thread(writer);
+        writerThread.start();
+
+        BlockingThreadPoolExecutor executor = new BlockingThreadPoolExecutor(threads);
+        ReaderInSmallMemory layoutReader = new ReaderInSmallMemory(layoutFile.get());
+        int layoutNumber = 0;
+        try {
+            while (true) {
+                IntArrayList readNums = new IntArrayList();
+                IntArrayList shifts = new IntArrayList();
+                while (true) {
+                    int readNum = layoutReader.readInteger();
+                    int shift = layoutReader.readInteger();
+                    if (readNum == -1) {
+                        break;
+                    }
+                    readNums.add(readNum);
+                    shifts.add(shift);
+                }
+                if (readNums.isEmpty()) {
+                    break;
+                }
+
+                // consensus isn't needed for layouts which aren't written
+                ConsensusTask task = new ConsensusTask(layoutNumber, readNums.toIntArray(), shifts.toIntArray(),
+                        readNums.size() >= minReadsInContig.get());
+                tasksToWrite.put(task);
+                if (task.needed) {
+                    executor.blockingExecute(task);
+                }
+                layoutNumber++;
+            }
+        } finally {
+            tasksToWrite.put(endOfLayouts);
+            executor.shutdownAndAwaitTermination();
+            writerThread.join();
+            layoutReader.close();
+        }
+        if (writer.failed) {
+            throw new ExecutionFailedException("Failed to make consensus for some contigs");
         }
 
-        LightDna[] prependix = new LightDna[readsNumber];
-        LightDna[] appendix = new LightDna[readsNumber];
+        info(groupDigits(writer.contigsMade) + " contigs made from " + groupDigits(layoutNumber) + " layouts");
+    }
+
+    private void loadHoles() throws IOException {
+        fillers = new ShiftedFiller[readsNumber][];
+
+        prependix = new LightDna[readsNumber];
+        appendix = new LightDna[readsNumber];
 
 
         for (int i = 0; i < readsNumber; ++i) {
@@ -130,69 +197,147 @@ public class ConsensusMaker extends Tool {
                     continue;
                 }
 
-                int shift = reads.get(iFrom).length() + fh.filler.distance;
-                int rcShift = reads.get(iTo).length() + fh.filler.distance;
+                int shift = reads.length(iFrom) + fh.filler.distance;
+                int rcShift = reads.length(iTo) + fh.filler.distance;
 
-                fillersMap.get(iTo).add(new ShiftedFiller(iFrom, shift, new Dna(fh.filler.sequence)));
-                fillersMap.get(iFrom ^ 1).add(new ShiftedFiller(iTo ^ 1, rcShift, new Dna(fh.filler.sequence).reverseComplement()));
+                addFiller(iTo, new ShiftedFiller(iFrom, shift, new Dna(fh.filler.sequence)));
+                addFiller(iFrom ^ 1, new ShiftedFiller(iTo ^ 1, rcShift, new Dna(fh.filler.sequence).reverseComplement()));
             }
             holesReader.close();
         }
+    }
 
-        PrintWriter out = new PrintWriter(contigsFile.get());
+    private void addFiller(int read, ShiftedFiller filler) {
+        // there are only few holes ending at one read
+        ShiftedFiller[] readFillers = fillers[read];
+        if (readFillers == null) {
+            fillers[read] = new ShiftedFiller[]{filler};
+        } else {
+            readFillers = Arrays.copyOf(readFillers, readFillers.length + 1);
+            readFillers[readFillers.length - 1] = filler;
+            fillers[read] = readFillers;
+        }
+    }
 
-        ReaderInSmallMemory layoutReader = new ReaderInSmallMemory(layoutFile.get());
-        int contigsMade = 0;
-        LayoutPart p = new LayoutPart(-1, -1);
-        Consensus consensus = new Consensus(reads, 0);
-        int layoutNumber = 0;
-        while (true) {
-            HashSet<MutablePair<Integer, Integer>> backLayoutIndex = new HashSet<MutablePair<Integer, Integer>>();
-            int readsInContig = 0;
-            consensus.reset();
+    private static long layoutPartKey(int readNum, int shift) {
+        return ((long) readNum << 32) | (shift & 0xFFFFFFFFL);
+    }
 
-            LayoutPartIterator it = new LayoutPartIterator(layoutReader);
-            if (!it.hasNext()) {
-                break;
-            }
 
-            int startOffset = Integer.MAX_VALUE;
-            int finishOffset = Integer.MIN_VALUE;
+    private final ThreadLocal<Consensus> consensuses = new ThreadLocal<Consensus>();
 
-            for (p = it.next();; p = it.next()) {
-                consensus.addLayoutPart(p);
-                consensus.addDna(appendix[p.readNum], p.shift + reads.get(p.readNum).length());
-                consensus.addDna(prependix[p.readNum], p.shift - prependix[p.readNum].length());
+    private final ConsensusTask endOfLayouts = new ConsensusTask(-1, null, null, false);
 
-                backLayoutIndex.add(new MutablePair<Integer, Integer>(p.readNum, p.shift));
-                for (ShiftedFiller filler: fillersMap.get(p.readNum)) {
+    /**
+     * Makes consensus for one layout.
+     */
+    private class ConsensusTask implements Runnable {
+        final int layoutNumber;
+        final int[] readNums;
+        final int[] shifts;
+        final boolean needed;
 
-                    if (backLayoutIndex.contains(new MutablePair<Integer, Integer>(filler.beginContig, p.shift - filler.shift))) {
-                        consensus.addDna(filler.sequence, p.shift - filler.sequence.length());
-                    }
+        volatile String contig;
+        final CountDownLatch done = new CountDownLatch(1);
 
+        ConsensusTask(int layoutNumber, int[] readNums, int[] shifts, boolean needed) {
+            this.layoutNumber = layoutNumber;
+            this.readNums = readNums;
+            this.shifts = shifts;
+            this.needed = needed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                contig = makeContig();
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private String makeContig() {
+            Consensus consensus = consensuses.get();
+            if (consensus == null) {
+                consensus = new Consensus(reads, 0);
+                consensuses.set(consensus);
+            }
+            consensus.reset();
+
+            // layout parts already added to consensus, it is needed only for holes fillers
+            LongOpenHashSet backLayoutIndex = null;
+
+            for (int i = 0; i < readNums.length; i++) {
+                int readNum = readNums[i];
+                int shift = shifts[i];
+                consensus.addDna(reads.get(readNum), shift);
+                consensus.addDna(appendix[readNum], shift + reads.length(readNum));
+                consensus.addDna(prependix[readNum], shift - prependix[readNum].length());
+
+                if (fillers[readNum] != null || backLayoutIndex != null) {
+                    if (backLayoutIndex == null) {
+                        backLayoutIndex = new LongOpenHashSet();
+                        for (int j = 0; j < i; j++) {
+                            backLayoutIndex.add(layoutPartKey(readNums[j], shifts[j]));
+                        }
+                    }
+                    backLayoutIndex.add(layoutPartKey(readNum, shift));
                 }
-                int centerOffset = p.shift + reads.get(p.readNum).length() / 2;
-                startOffset = Math.min(startOffset, centerOffset);
-                finishOffset = Math.max(finishOffset, centerOffset);
-                ++readsInContig;
-                if (!it.hasNext()) {
-                    break;
+                if (fillers[readNum] != null) {
+                    for (ShiftedFiller filler : fillers[readNum]) {
+                        if (backLayoutIndex.contains(layoutPartKey(filler.beginContig, shift - filler.shift))) {
+                            consensus.addDna(filler.sequence, shift - filler.sequence.length());
+                        }
+                    }
                 }
             }
 
-            if (readsInContig >= minReadsInContig.get()) {
-                out.println(">" + contigsMade + " <- " + layoutNumber);
-//                out.println(">" + contigsMade);
-                out.println(consensus.toString());
-                contigsMade++;
-            }
-            layoutNumber++;
+            return consensus.toString();
+        }
+    }
+
+    /**
+     * Writes contigs in the order of layouts, waiting for their consensuses to be made.
+     */
+    private class ContigsWriter implements Runnable {
+        private final PrintWriter out;
+        private final BlockingQueue<ConsensusTask> tasks;
+
+        volatile int contigsMade = 0;
+        volatile boolean failed = false;
 
+        ContigsWriter(PrintWriter out, BlockingQueue<ConsensusTask> tasks) {
+            this.out = out;
+            this.tasks = tasks;
         }
-        out.close();
 
-        info(groupDigits(contigsMade) + " contigs made from " + groupDigits(layoutNumber) + " layouts");
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    ConsensusTask task = tasks.take();
+                    if (task == endOfLayouts) {
+                        break;
+                    }
+                    if (!task.needed) {
+                        continue;
+                    }
+                    task.done.await();
+                    if (task.contig == null) {
+                        failed = true;
+                        continue;
+                    }
+                    out.println(">" + contigsMade + " <- " + task.layoutNumber);
+//                    out.println(">" + contigsMade);
+                    out.println(task.contig);
+                    contigsMade++;
+                }
+            } catch (InterruptedException e) {
+                failed = true;
+            } finally {
+                out.close();
+            }
+        }
     }
 
 
@@ -1,9 +1,14 @@
 package ru.ifmo.genetics.tools.olc.layouter;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
 import ru.ifmo.genetics.dna.Dna;
-import ru.ifmo.genetics.io.readers.ReadsPlainReader;
+import ru.ifmo.genetics.dna.LightDna;
+import ru.ifmo.genetics.executors.PatientExecutorService;
 import ru.ifmo.genetics.tools.olc.overlaps.Overlaps;
 import ru.ifmo.genetics.tools.olc.overlaps.OverlapsList;
+import ru.ifmo.genetics.tools.olc.reads.PackedReads;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
 import ru.ifmo.genetics.utils.tool.Parameter;
 import ru.ifmo.genetics.utils.tool.Tool;
@@ -15,9 +20,10 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
 
 import static ru.ifmo.genetics.tools.olc.overlaps.OverlapsList.Edge;
 
@@ -71,8 +77,8 @@ public class Layouter extends Tool {
 
     // internal variables
     private int readsNumber;
-    private ArrayList<Dna> reads;
-    protected Overlaps<Dna> overlaps;
+    private List<LightDna> reads;
+    protected Overlaps<LightDna> overlaps;
     private int averageWeight;
 
 
@@ -115,13 +121,12 @@ public class Layouter extends Tool {
         info("Loading reads...");
         readsNumber = readsNumberParameter.get();
         if (readsNumber == -1) {
-            reads = ReadsPlainReader.loadReadsAndAddRC(readsFile.get().toString());
+            reads = PackedReads.load(readsFile.get());
             readsNumber = reads.size();
         } else {
-            Dna emptyDna = new Dna("");
-            reads = new ArrayList<Dna>(readsNumber);
+            reads = new ArrayList<LightDna>(readsNumber);
             for (int i = 0; i < readsNumber; ++i) {
-                reads.add(emptyDna);
+                reads.add(Dna.emptyDna);
             }
         }
 
@@ -136,29 +141,188 @@ public class Layouter extends Tool {
 
 
 
+    // ============================== passes over seeds ================================
+
+    private static final int WINDOW_SIZE = 1 << 14;
+    private static final int TASK_SIZE = 1 << 10;
+
+    /**
+     * <code>changedInWindow[i]</code> = number of the window in which overlaps of reads 2i or 2i+1
+     * were changed last time.
+     */
+    private int[] changedInWindow;
+    private int window;
+
+    private void changed(int read) {
+        if (changedInWindow != null) {
+            changedInWindow[read >> 1] = window;
+        }
+    }
+
+    /**
+     * Pass over all reads in their order, which explores reads in parallel. <br>
+     *
+     * Reads are processed by windows. Firstly all reads of the window are explored in parallel without
+     * changing the graph, exploring finds out if processing of a read can change the graph and which reads
+     * it looks at. Then reads of the window are processed sequentially, skipping reads which don't change
+     * the graph and look only at reads not changed by previous reads of the window.
+     * So the result is the same as of sequential processing of all reads.
+     */
+    private abstract class SeedsPass {
+        /**
+         * Explores processing of read i without changing the graph, adds reads it looks at to seen.
+         *
+         * @return false if processing of read i doesn't change the graph
+         */
+        abstract boolean explore(int i, IntArrayList seen);
+
+        abstract void process(int i);
+
+        void run() throws InterruptedException {
+            changedInWindow = new int[(readsNumber + 1) / 2];
+            Arrays.fill(changedInWindow, -1);
+            window = 0;
+
+            final boolean[] mayChange = new boolean[WINDOW_SIZE];
+            final int[] seenEnd = new int[WINDOW_SIZE];
+            IntArrayList[] seen = new IntArrayList[WINDOW_SIZE / TASK_SIZE];
+            for (int t = 0; t < seen.length; t++) {
+                seen[t] = new IntArrayList();
+            }
+
+            // one pool for the whole pass, every window waits only for its own tasks
+            PatientExecutorService executor = new PatientExecutorService(availableProcessors.get());
+            try {
+                for (int begin = 0; begin < readsNumber; begin += WINDOW_SIZE, window++) {
+                    final int windowBegin = begin;
+                    int end = Math.min(begin + WINDOW_SIZE, readsNumber);
+
+                    final CountDownLatch windowExplored = new CountDownLatch((end - begin + TASK_SIZE - 1) / TASK_SIZE);
+                    for (int t = 0; begin + t * TASK_SIZE < end; t++) {
+                        final int taskBegin = begin + t * TASK_SIZE;
+                        final int taskEnd = Math.min(taskBegin + TASK_SIZE, end);
+                        final IntArrayList taskSeen = seen[t];
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    taskSeen.clear();
+                                    for (int i = taskBegin; i < taskEnd; i++) {
+                                        mayChange[i - windowBegin] = explore(i, taskSeen);
+                                        seenEnd[i - windowBegin] = taskSeen.size();
+                                    }
+                                } finally {
+                                    windowExplored.countDown();
+                                }
+                            }
+                        });
+                    }
+                    windowExplored.await();
+
+                    for (int i = begin; i < end; i++) {
+                        int k = i - begin;
+                        IntArrayList taskSeen = seen[k / TASK_SIZE];
+                        boolean needed = mayChange[k];
+                        for (int j = (k % TASK_SIZE == 0) ? 0 : seenEnd[k - 1]; !needed && j < seenEnd[k]; j++) {
+                            needed = changedInWindow[taskSeen.getInt(j) >> 1] == window;
+                        }
+                        if (needed) {
+                            process(i);
+                        }
+                    }
+                }
+            } finally {
+                // failures of exploring tasks are reported here
+                executor.waitForShutdown();
+            }
+
+            changedInWindow = null;
+        }
+    }
+
+    private boolean isBranching(int i) {
+        return !overlaps.isReadRemoved(i) && overlaps.getOutDegree(i) > 1;
+    }
+
+
+
     // ================================ remove tips ====================================
 
     private int removedNodes;
 
-    protected int removeTips() {
+    protected int removeTips() throws InterruptedException {
         removedNodes = 0;
-        OverlapsList tempList = new OverlapsList(overlaps.withWeights);
+        final int depth = tipsDepth.get();
 
-        for (int i = 0; i < readsNumber; ++i) {
-            if (overlaps.isReadRemoved(i)) {
-                continue;
+        new SeedsPass() {
+            OverlapsList tempList = new OverlapsList(overlaps.withWeights);
+
+            @Override
+            boolean explore(int i, IntArrayList seen) {
+                seen.add(i);
+                if (!isBranching(i)) {
+                    return false;
+                }
+                OverlapsList list = overlaps.getList(i);
+                for (int j = 0; j < list.size(); ++j) {
+                    if (findTip(i, list.getTo(j), depth, seen) < 0) {
+                        return true;
+                    }
+                }
+                return false;
             }
-            if (overlaps.getForwardOverlaps(i, tempList).size() > 1) {
-                for (int j = 0; j < tempList.size(); ++j) {
-                    removeTipsIfAny(i, tempList.getTo(j), tipsDepth.get());
+
+            @Override
+            void process(int i) {
+                if (overlaps.isReadRemoved(i)) {
+                    return;
+                }
+                if (overlaps.getForwardOverlaps(i, tempList).size() > 1) {
+                    for (int j = 0; j < tempList.size(); ++j) {
+                        removeTipsIfAny(i, tempList.getTo(j), depth);
+                    }
                 }
             }
-        }
+        }.run();
 
         info(removedNodes + " nodes removed");
         return removedNodes;
     }
 
+    /**
+     * The same as {@link #removeTipsIfAny(int, int, int)}, but doesn't change the graph.
+     *
+     * @return 1 if i is removed, 0 if i isn't in tip, -1 if removing tips changes the graph
+     */
+    private int findTip(int seed, int i, int depth, IntArrayList seen) {
+        if (depth <= 0) {
+            return 0;
+        }
+        if (i == seed) {
+            return 0;
+        }
+        seen.add(i);
+        if (overlaps.isReadRemoved(i)) {
+            return 1;
+        }
+
+        OverlapsList list = overlaps.getList(i);
+        for (int j = 0; j < list.size(); ++j) {
+            seen.add(list.getTo(j));
+            if (overlaps.isReadRemoved(list.getTo(j))) {
+                return -1;
+            }
+        }
+        for (int j = 0; j < list.size(); ++j) {
+            int res = findTip(seed, list.getTo(j), depth - 1, seen);
+            if (res != 1) {
+                return res;
+            }
+        }
+        // all reads after i are in tip, so i is removed
+        return -1;
+    }
+
     /**
      * @return true if i was in tip and it was removed
      */
@@ -182,7 +346,9 @@ public class Layouter extends Tool {
         */
 
         boolean res = true;
-        overlaps.removeOverlapsWithNull(i);
+        if (overlaps.removeOverlapsWithNull(i) > 0) {
+            changed(i);
+        }
         overlaps.getForwardOverlaps(i, tempList);
         for (int j = 0; j < tempList.size(); ++j) {
             int to = tempList.getTo(j);
@@ -210,6 +376,7 @@ public class Layouter extends Tool {
         for (int j = 0; j < tempList.size(); ++j) {
             int to = tempList.getTo(j);
             int shift = tempList.getCenterShift(j);
+            changed(to);
             overlaps.removeOverlap(i, to, shift);
         }
 
@@ -217,9 +384,11 @@ public class Layouter extends Tool {
         for (int j = 0; j < tempList.size(); ++j) {
             int to = tempList.getTo(j);
             int shift = tempList.getCenterShift(j);
+            changed(to);
             overlaps.removeOverlap(to, i, -shift);
         }
 
+        changed(i);
         overlaps.markReadRemoved(i);
         removedNodes++;
     }
@@ -232,36 +401,42 @@ public class Layouter extends Tool {
 
     protected void mergeGraph() throws InterruptedException {
         merges = 0;
+        final int depth = mergeLength.get();
 
-        OverlapsList tempList = new OverlapsList(overlaps.withWeights);
-        int tries = 0;
-        for (int i = 0; i < readsNumber; ++i) {
-//            if ((i & (i - 1)) == 0) {
-//                System.err.println(i + "/" + readsCount);
-//            }
-            if (overlaps.isReadRemoved(i)) {
-                continue;
+        new SeedsPass() {
+            @Override
+            boolean explore(int i, IntArrayList seen) {
+                seen.add(i);
+                return isBranching(i) && tryMergePaths(i, depth, seen);
             }
-            if (overlaps.getForwardOverlaps(i, tempList).size() > 1) {
-                tryMergePaths(i, mergeLength.get());
-                tries++;
-//                if ((tries & (tries - 1)) == 0) {
-//                    System.err.println(tries + " tries");
-//                }
+
+            @Override
+            void process(int i) {
+                if (isBranching(i)) {
+                    tryMergePaths(i, depth, null);
+                }
             }
-        }
+        }.run();
+
         info(merges + " merges");
     }
 
-    private void tryMergePaths(int from, int depth) {
+    /**
+     * Searches for paths from vertex from which meet again and merges them if they are similar. <br>
+     * If seen isn't null then the graph isn't changed, reads whose overlaps are looked at are added to seen
+     * and search stops at the first merge.
+     *
+     * @return true if some paths were merged
+     */
+    private boolean tryMergePaths(int from, int depth, IntArrayList seen) {
 //        System.out.print("Trying to merge from vertex " + from + "... ");
 
         PriorityQueue<Edge> queue = new PriorityQueue<Edge>();
-        HashMap<Edge, Edge> prevs = new HashMap<Edge, Edge>();
-        HashSet<Integer> visited = new HashSet<Integer>();
+        Long2LongOpenHashMap prevs = newPrevsMap();
+        IntOpenHashSet visited = new IntOpenHashSet();
         Edge fromEdge = new Edge(from, 0);
         queue.add(fromEdge);
-        prevs.put(fromEdge, null);
+        putPrev(prevs, fromEdge, null);
         boolean firstly = true;
         int merges = 0;
         OverlapsList tempList = new OverlapsList(overlaps.withWeights);
@@ -294,14 +469,17 @@ public class Layouter extends Tool {
                 }
             }
 
+            if (seen != null) {
+                seen.add(u.to);
+            }
             overlaps.getForwardOverlaps(u.to, tempList);
 
             for (int i = 0 ; i < tempList.size(); ++i) {
                 Edge v = tempList.get(i);
                 v.centerShift += u.centerShift;
 
-                if (prevs.containsKey(v)) {
-                    Edge u2 = prevs.get(v);
+                if (prevs.containsKey(edgeKey(v))) {
+                    Edge u2 = getPrev(prevs, v);
                     if (u2 == null) {
                         continue;
                     }
@@ -323,7 +501,10 @@ public class Layouter extends Tool {
                         }
                     }
                     if (numberOfMismatches <= (minPositiveSize + minNegativeSize) / 10) {
-                        mergeBackPaths(v, prevs.get(v), u, prevs);
+                        if (seen != null) {
+                            return true;
+                        }
+                        mergeBackPaths(v, u2, u, prevs);
 
                         merges++;
                     } else {
@@ -333,32 +514,58 @@ public class Layouter extends Tool {
 
                 }
 
-                prevs.put(v, u);
+                putPrev(prevs, v, u);
                 queue.add(v);
             }
         }
 //        System.err.println(merges + " merges");
-        this.merges += merges;
+        if (seen == null) {
+            this.merges += merges;
+        }
+        return merges > 0;
     }
 
 
-    private Consensus getPathConsensus(Edge from, Edge to, HashMap<Edge, Edge> prevs) {
+    // edges are stored in paths maps as longs, null edge is stored as NO_EDGE
+    private static final long NO_EDGE = -1;
+
+    private static long edgeKey(Edge e) {
+        return ((long) e.to << 32) | (e.centerShift & 0xFFFFFFFFL);
+    }
+
+    private static Long2LongOpenHashMap newPrevsMap() {
+        Long2LongOpenHashMap prevs = new Long2LongOpenHashMap();
+        prevs.defaultReturnValue(NO_EDGE);
+        return prevs;
+    }
+
+    private static Edge getPrev(Long2LongOpenHashMap prevs, Edge e) {
+        long prev = prevs.get(edgeKey(e));
+        return (prev == NO_EDGE) ? null : new Edge((int) (prev >>> 32), (int) prev);
+    }
+
+    private static void putPrev(Long2LongOpenHashMap prevs, Edge e, Edge prev) {
+        prevs.put(edgeKey(e), (prev == null) ? NO_EDGE : edgeKey(prev));
+    }
+
+
+    private Consensus getPathConsensus(Edge from, Edge to, Long2LongOpenHashMap prevs) {
         Consensus consensus = new Consensus(overlaps.reads, 0.7, 1);
         Edge originalTo = to;
         while (to != null) {
             int shift = overlaps.centerShiftToBeginShift(from.to, to.to, to.centerShift);
             consensus.addDna(reads.get(to.to), shift);
-            to = prevs.get(to);
+            to = getPrev(prevs, to);
         }
         return consensus;
 
     }
 
-    private void mergeBackPaths(Edge end, Edge to1, Edge to2, HashMap<Edge, Edge> prevs) {
+    private void mergeBackPaths(Edge end, Edge to1, Edge to2, Long2LongOpenHashMap prevs) {
 //        System.err.println(end + " " + to1 + " " + to2);
         // to1 and to2 are both connected to end
         if (to1.equals(to2)) {
-            prevs.put(end, to1);
+            putPrev(prevs, end, to1);
             return;
         }
 
@@ -366,7 +573,7 @@ public class Layouter extends Tool {
             if (!overlaps.isWellOriented(to2.to, to1.to, to1.centerShift - to2.centerShift)) {
                 Edge t = to2; to2 = to1; to1 = t;
             }
-            Edge newTo2 = prevs.get(to1);
+            Edge newTo2 = getPrev(prevs, to1);
             int w;
             try {
                 w = getOverlapsWeight(to2, end);
@@ -384,7 +591,7 @@ public class Layouter extends Tool {
 
             removeOverlap(to2, end);
             addOverlap(to2, to1, w);
-            prevs.put(end, to1);
+            putPrev(prevs, end, to1);
             mergeBackPaths(to1, to2, newTo2, prevs);
 
         } catch (StackOverflowError e) {
@@ -394,10 +601,14 @@ public class Layouter extends Tool {
     }
 
     private void addOverlap(Edge from, Edge to, int weight) {
+        changed(from.to);
+        changed(to.to);
         overlaps.addOverlap(from.to, to.to, to.centerShift - from.centerShift, weight);
     }
 
     private int removeOverlap(Edge from, Edge to) {
+        changed(from.to);
+        changed(to.to);
         return overlaps.removeOverlap(from.to, to.to, to.centerShift - from.centerShift);
     }
 
@@ -412,31 +623,42 @@ public class Layouter extends Tool {
     /**
      * Actualy not merges but removes one of the paths
      */
-    protected void mergePathsWithIndel() {
+    protected void mergePathsWithIndel() throws InterruptedException {
         merges = 0;
+        final int depth = mergeLength.get();
 
-        OverlapsList tempList = new OverlapsList(overlaps.withWeights);
-        int tries = 0;
-        for (int i = 0; i < readsNumber; ++i) {
-            if (overlaps.isReadRemoved(i)) {
-                continue;
+        new SeedsPass() {
+            @Override
+            boolean explore(int i, IntArrayList seen) {
+                seen.add(i);
+                return isBranching(i) && mergePathsWithIndelStartingFrom(i, depth, seen);
             }
-            if (overlaps.getForwardOverlaps(i, tempList).size() > 1) {
-                mergePathsWithIndelStartingFrom(i, mergeLength.get());
-                tries++;
+
+            @Override
+            void process(int i) {
+                if (isBranching(i)) {
+                    mergePathsWithIndelStartingFrom(i, depth, null);
+                }
             }
-        }
+        }.run();
 
         info(merges + " merges");
     }
 
-    private void mergePathsWithIndelStartingFrom(int from, int depth) {
+    /**
+     * If seen isn't null then the graph isn't changed, reads whose overlaps are looked at are added to seen
+     * and search stops at the first path removing.
+     *
+     * @return true if the graph is changed
+     */
+    private boolean mergePathsWithIndelStartingFrom(int from, int depth, IntArrayList seen) {
 //        System.err.println("merging indels from " + from);
         PriorityQueue<Edge> queue = new PriorityQueue<Edge>();
-        HashMap<Edge, Edge> prevs = new HashMap<Edge, Edge>();
-        HashSet<Integer> visited = new HashSet<Integer>();
+        Long2LongOpenHashMap prevs = newPrevsMap();
+        IntOpenHashSet visited = new IntOpenHashSet();
         queue.add(new Edge(from, 0));
-        prevs.put(new Edge(from, 0), null);
+        putPrev(prevs, new Edge(from, 0), null);
+        boolean graphChanged = false;
         boolean firstly = true;
         int merges = 0;
         OverlapsList tempList = new OverlapsList(overlaps.withWeights);
@@ -462,6 +684,9 @@ public class Layouter extends Tool {
                 continue;
             }
 
+            if (seen != null) {
+                seen.add(u.to);
+            }
             overlaps.getForwardOverlaps(u.to, tempList);
 //            System.err.println("going for " + u);
 
@@ -475,42 +700,58 @@ public class Layouter extends Tool {
                 for (int d = -maxDeviation; d <= maxDeviation; d += 2) {
                     v2.centerShift = v.centerShift + d;
                     if (v2.centerShift <= 0) {
-                        if (prevs.containsKey(v2)) {
+                        if (prevs.containsKey(edgeKey(v2))) {
+                            if (seen != null) {
+                                // warning is written by sequential processing
+                                return true;
+                            }
                             logger.warn("Short cycle found in vertex " + v2.to);
                         }
                         continue;
                     }
 
-                    if (!prevs.containsKey(v2)) {
+                    if (!prevs.containsKey(edgeKey(v2))) {
                         continue;
                     }
 
-                    Edge u2 = prevs.get(v2);
+                    Edge u2 = getPrev(prevs, v2);
+                    if (seen != null) {
+                        seen.add(u2.to);
+                    }
                     if (overlaps.isReadRemoved(u2.to)) {
                         continue;
                     }
                     boolean pathToVIsSimple = pathIsSimple(u, prevs);
-                    boolean pathToV2IsSimple = pathIsSimple(prevs.get(v2), prevs);
+                    boolean pathToV2IsSimple = pathIsSimple(u2, prevs);
                     // pathToV is longer than pathToV2
 
+                    if ((pathToV2IsSimple || pathToVIsSimple) && seen != null) {
+                        return true;
+                    }
                     if (pathToV2IsSimple) {
                         removePath(u2, prevs);
+                        changed(from);
                         overlaps.removeOverlapsWithNull(from);
+                        changed(v2.to);
                         overlaps.removeOverlapsWithNull(v2.to ^ 1);
                         queue.remove(v2);
-                        prevs.remove(v2);
+                        prevs.remove(edgeKey(v2));
+                        graphChanged = true;
                     } else if (pathToVIsSimple) {
                         removePath(u, prevs);
+                        changed(from);
                         overlaps.removeOverlapsWithNull(from);
+                        changed(v.to);
                         overlaps.removeOverlapsWithNull(v.to ^ 1);
                         removed = true;
+                        graphChanged = true;
                         break;
                     }
 
                 }
 
                 if (!removed) {
-                    prevs.put(v, u);
+                    putPrev(prevs, v, u);
                     queue.add(v);
 //                    System.err.println("added " + v + " to queue");
                 } else {
@@ -520,33 +761,35 @@ public class Layouter extends Tool {
         }
 //        System.err.println(merges + " merges");
         this.merges += merges;
+        return graphChanged;
     }
 
-    private void removePath(Edge to, HashMap<Edge, Edge> prevs) {
+    private void removePath(Edge to, Long2LongOpenHashMap prevs) {
         if (overlaps.isReadRemoved(to.to)) {
             // s -> x ->y -> yrc -> xrc -> src
             // Everything before should be already removed.
-            Edge prev = prevs.get(to);
+            Edge prev = getPrev(prevs, to);
             while (prev != null) {
                 assert overlaps.isReadRemoved(to.to);
                 to = prev;
-                prev = prevs.get(to);
+                prev = getPrev(prevs, to);
             }
             return;
         }
         assert !overlaps.isReadRemoved(to.to) : "Expected read " + to.to + " not to be removed";
-        Edge prev = prevs.get(to);
+        Edge prev = getPrev(prevs, to);
         if (prev == null) {
             return;
         }
 
+        changed(to.to);
         overlaps.markReadRemoved(to.to);
         removePath(prev, prevs);
     }
 
-    private boolean pathIsSimple(Edge to, HashMap<Edge, Edge> prevs) {
+    private boolean pathIsSimple(Edge to, Long2LongOpenHashMap prevs) {
         assert !overlaps.isReadRemoved(to.to) : "Expected read " + to.to + " not to be removed";
-        Edge prev = prevs.get(to);
+        Edge prev = getPrev(prevs, to);
         if (prev == null) {
             return true;
         }
@@ -558,40 +801,68 @@ public class Layouter extends Tool {
 
     // ============================== remove non minimal overlap ===============================
 
-    private void removeNonMinimalOverlaps() {
-        Overlaps<Dna> newOverlaps = new Overlaps<Dna>(reads, availableProcessors.get(), overlaps.withWeights);
+    /**
+     * Leaves only one forward overlap with maximal weight for each read. <br>
+     * Overlaps are chosen in parallel and then added to new overlaps in reads order.
+     */
+    private void removeNonMinimalOverlaps() throws InterruptedException {
+        final int[] bestJ = new int[readsNumber];
+        final OverlapsList[] lists = new OverlapsList[readsNumber];
+
+        PatientExecutorService executor = new PatientExecutorService(availableProcessors.get());
+        for (int begin = 0; begin < readsNumber; begin += TASK_SIZE) {
+            final int taskBegin = begin;
+            final int taskEnd = Math.min(begin + TASK_SIZE, readsNumber);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = taskBegin; i < taskEnd; ++i) {
+                        if (overlaps.isReadRemoved(i)) {
+                            continue;
+                        }
+                        overlaps.removeOverlapsWithNull(i);
+                        lists[i] = overlaps.getList(i);
+                        bestJ[i] = findMaxWeightOverlap(lists[i]);
+                    }
+                }
+            });
+        }
+        executor.waitForShutdown();
 
-        OverlapsList tempList = new OverlapsList(overlaps.withWeights);
+        Overlaps<LightDna> newOverlaps = new Overlaps<LightDna>(reads, availableProcessors.get(), overlaps.withWeights);
         for (int i = 0; i < readsNumber; ++i) {
-            if (overlaps.isReadRemoved(i)) {
+            if (lists[i] == null) {
                 newOverlaps.markReadRemoved(i);
                 continue;
             }
-            overlaps.removeOverlapsWithNull(i);
-            overlaps.getForwardOverlaps(i, tempList);
-
-            int maxWeight = Integer.MIN_VALUE;
-            int maxJ = -1;
-            for (int j = 0; j < tempList.size(); ++j) {
-                int jTo = tempList.getTo(j);
-                int jWeight = tempList.getWeight(j);
-
-                if (j == 0 || jWeight >= maxWeight) {
-                    maxWeight = jWeight;
-                    maxJ = j;
-                }
-            }
-
+            int maxJ = bestJ[i];
             if (maxJ != -1) {
-//                System.err.println("read " + i + ", adding overlap(" + i + ", " + tempList.getTo(maxJ) + ", " +
-//                        tempList.getCenterShift(maxJ) + ", " + tempList.getWeight(maxJ) + ")");
-                newOverlaps.addOverlap(i, tempList.getTo(maxJ), tempList.getCenterShift(maxJ), tempList.getWeight(maxJ));
+                OverlapsList list = lists[i];
+//                System.err.println("read " + i + ", adding overlap(" + i + ", " + list.getTo(maxJ) + ", " +
+//                        list.getCenterShift(maxJ) + ", " + list.getWeight(maxJ) + ")");
+                newOverlaps.addOverlap(i, list.getTo(maxJ), list.getCenterShift(maxJ), list.getWeight(maxJ));
             }
-
         }
         overlaps = newOverlaps;
     }
 
+    /**
+     * @return index of the last overlap with maximal weight in list, or -1 if list is empty
+     */
+    private static int findMaxWeightOverlap(OverlapsList list) {
+        int maxWeight = Integer.MIN_VALUE;
+        int maxJ = -1;
+        for (int j = 0; j < list.size(); ++j) {
+            int jWeight = list.getWeight(j);
+
+            if (j == 0 || jWeight >= maxWeight) {
+                maxWeight = jWeight;
+                maxJ = j;
+            }
+        }
+        return maxJ;
+    }
+
 
 
     // =================================== dump result =====================================
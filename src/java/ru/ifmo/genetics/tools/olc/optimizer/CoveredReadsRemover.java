@@ -1,12 +1,11 @@
 package ru.ifmo.genetics.tools.olc.optimizer;
 
-import ru.ifmo.genetics.dna.Dna;
 import ru.ifmo.genetics.io.readers.DedicatedLineReader;
-import ru.ifmo.genetics.io.readers.ReadsPlainReader;
 import ru.ifmo.genetics.io.writers.DedicatedLineWriter;
 import ru.ifmo.genetics.executors.BlockingThreadPoolExecutor;
 import ru.ifmo.genetics.tools.olc.overlaps.GeneratingOverlapsAfterRemovingCRTask;
 import ru.ifmo.genetics.tools.olc.overlaps.RemovingCoveredReadsTask;
+import ru.ifmo.genetics.tools.olc.reads.PackedReads;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
 import ru.ifmo.genetics.utils.tool.Parameter;
 import ru.ifmo.genetics.utils.tool.Tool;
@@ -17,7 +16,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 
 import static ru.ifmo.genetics.utils.NumUtils.groupDigits;
 
@@ -44,7 +42,7 @@ public class CoveredReadsRemover extends Tool {
     
     // internal variables
     private int readsNumber;
-    private ArrayList<Dna> reads;
+    private PackedReads reads;
     private File[] overlapsFileArray;
     private boolean rawOverlaps;
     private RemovingCRTaskContext context;
@@ -66,7 +64,7 @@ public class CoveredReadsRemover extends Tool {
 
     private void load() throws IOException, InterruptedException {
         info("Loading reads...");
-        reads = ReadsPlainReader.loadReadsAndAddRC(readsFile.get().toString());
+        reads = PackedReads.load(readsFile.get());
         readsNumber = reads.size();
         overlapsFileArray = overlapsFiles.get();
         if (overlapsFileArray.length > 0) {
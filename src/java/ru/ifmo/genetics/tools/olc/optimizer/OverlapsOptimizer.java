@@ -1,13 +1,12 @@
 package ru.ifmo.genetics.tools.olc.optimizer;
 
 
-import ru.ifmo.genetics.dna.Dna;
-import ru.ifmo.genetics.io.readers.ReadsPlainReader;
 import ru.ifmo.genetics.statistics.Timer;
 import ru.ifmo.genetics.executors.BlockingThreadPoolExecutor;
 import ru.ifmo.genetics.tools.olc.overlaps.OptimizingTask;
 import ru.ifmo.genetics.tools.olc.overlaps.Overlaps;
 import ru.ifmo.genetics.tools.olc.overlaps.OverlapsList;
+import ru.ifmo.genetics.tools.olc.reads.PackedReads;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
 import ru.ifmo.genetics.utils.tool.Parameter;
 import ru.ifmo.genetics.utils.tool.Tool;
@@ -15,7 +14,6 @@ import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileParameterBuilder;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 
 import static ru.ifmo.genetics.utils.NumUtils.groupDigits;
 
@@ -38,13 +36,13 @@ public class OverlapsOptimizer extends Tool {
     public final Parameter<File> optimizedOverlapsFile = addParameter(new FileParameterBuilder("optimized-overlaps-file")
             .optional()
             .withDefaultValue(workDir.append("overlaps.optimized"))
-            .withDescription("file with optimized overlaps with weight")
+            .withDescription("file with optimized overlaps with weight in binary format")
             .create());
 
 
     // internal variables
     private int readsNumber;
-    private ArrayList<Dna> reads;
+    private PackedReads reads;
     private Overlaps overlaps;
     private Overlaps newOverlaps;
 
@@ -55,7 +53,7 @@ public class OverlapsOptimizer extends Tool {
             load();
             sortOverlaps();
             optimizeOverlaps();
-            newOverlaps.printToFile(optimizedOverlapsFile.get().toString());
+            newOverlaps.saveToBinaryFile(optimizedOverlapsFile.get());
         } catch (IOException e) {
             throw new ExecutionFailedException(e);
         } catch (InterruptedException e) {
@@ -65,7 +63,7 @@ public class OverlapsOptimizer extends Tool {
 
     private void load() throws IOException, InterruptedException {
         info("Loading reads...");
-        reads = ReadsPlainReader.loadReadsAndAddRC(readsFile.get().toString());
+        reads = PackedReads.load(readsFile.get());
         readsNumber = reads.size();
 
         info("Loading overlaps...");
@@ -1,9 +1,8 @@
 package ru.ifmo.genetics.tools.olc.optimizer;
 
-import ru.ifmo.genetics.dna.Dna;
 import ru.ifmo.genetics.io.ThreadUnsafeBufferedOutputStream;
 import ru.ifmo.genetics.io.readers.ReaderInSmallMemory;
-import ru.ifmo.genetics.io.readers.ReadsPlainReader;
+import ru.ifmo.genetics.tools.olc.reads.PackedReads;
 import ru.ifmo.genetics.utils.FileUtils;
 import ru.ifmo.genetics.utils.Misc;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
@@ -16,7 +15,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 
 import static ru.ifmo.genetics.utils.NumUtils.groupDigits;
 
@@ -67,7 +65,7 @@ public class OverlapsSlicer extends Tool {
         try {
             debug("Available memory: " + Misc.availableMemoryAsString());
 
-            ArrayList<Dna> reads = ReadsPlainReader.loadReadsAndAddRC(readsFile.get().toString());
+            PackedReads reads = PackedReads.load(readsFile.get());
 
             int readsNumber = reads.size();
             info("Reads number = " + groupDigits(readsNumber));
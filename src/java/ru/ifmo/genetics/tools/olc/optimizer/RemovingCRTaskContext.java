@@ -1,8 +1,8 @@
 package ru.ifmo.genetics.tools.olc.optimizer;
 
-import ru.ifmo.genetics.dna.Dna;
+import ru.ifmo.genetics.dna.LightDna;
 
-import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class RemovingCRTaskContext {
@@ -15,7 +15,7 @@ public class RemovingCRTaskContext {
     public final AtomicInteger[] overlapsCount;
 
 
-    public RemovingCRTaskContext(ArrayList<Dna> reads) {
+    public RemovingCRTaskContext(List<? extends LightDna> reads) {
         int readsNumber = reads.size();
         readLen = new int[readsNumber];
         removingRead = new boolean[readsNumber];
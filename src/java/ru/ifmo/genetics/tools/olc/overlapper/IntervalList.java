@@ -2,38 +2,80 @@ package ru.ifmo.genetics.tools.olc.overlapper;
 
 import java.util.Arrays;
 
+/**
+ * List of reads intervals, each with positions of the last errors. <br>
+ * Errors positions of all intervals are stored in one array, errorsNumber values per interval.
+ */
 public class IntervalList {
     private final static int DEFAULT_CAPACITY = 2;
     private final static int RESIZE_FACTOR_NUM = 3;
     private final static int RESIZE_FACTOR_DENUM = 2;
 
-    
+
     int[] l, r;
-    int[][] lastErrors;
+    int[] lastErrors;
+    final int errorsNumber;
 
     int size;
-    
 
-    public IntervalList() {
-        this(DEFAULT_CAPACITY);
+
+    public IntervalList(int errorsNumber) {
+        this(errorsNumber, DEFAULT_CAPACITY);
     }
 
-    public IntervalList(int capacity) {
+    public IntervalList(int errorsNumber, int capacity) {
+        this.errorsNumber = errorsNumber;
         l = new int[capacity];
         r = new int[capacity];
-        lastErrors = new int[capacity][];
+        lastErrors = new int[capacity * errorsNumber];
         size = 0;
     }
 
-    
+    public IntervalList(IntervalList other) {
+        errorsNumber = other.errorsNumber;
+        l = Arrays.copyOf(other.l, other.size);
+        r = Arrays.copyOf(other.r, other.size);
+        lastErrors = Arrays.copyOf(other.lastErrors, other.size * errorsNumber);
+        size = other.size;
+    }
+
+
     public void add(int l, int r, int[] lastErrors) {
+        add(l, r, lastErrors, 0);
+    }
+
+    /**
+     * Adds interval with errors positions lastErrors[offset, offset + errorsNumber).
+     */
+    public void add(int l, int r, int[] lastErrors, int offset) {
         ensureCapacity(size + 1);
         this.l[size] = l;
         this.r[size] = r;
-        this.lastErrors[size] = lastErrors;
+        System.arraycopy(lastErrors, offset, this.lastErrors, size * errorsNumber, errorsNumber);
         ++size;
     }
 
+    /**
+     * Adds interval with errors positions lastErrors[offset, offset + errorsNumber)
+     * without the first one and with new error at position pos.
+     */
+    public void addWithError(int l, int r, int[] lastErrors, int offset, int pos) {
+        ensureCapacity(size + 1);
+        this.l[size] = l;
+        this.r[size] = r;
+        int to = size * errorsNumber;
+        System.arraycopy(lastErrors, offset + 1, this.lastErrors, to, errorsNumber - 1);
+        this.lastErrors[to + errorsNumber - 1] = pos;
+        ++size;
+    }
+
+    /**
+     * Returns position of the oldest error of i-th interval.
+     */
+    public int firstError(int i) {
+        return lastErrors[i * errorsNumber];
+    }
+
     public void ensureCapacity(int minCapacity) {
         if (l.length >= minCapacity)
             return;
@@ -46,7 +88,7 @@ public class IntervalList {
 
         l = Arrays.copyOf(l, newCapacity);
         r = Arrays.copyOf(r, newCapacity);
-        lastErrors = Arrays.copyOf(lastErrors, newCapacity);
+        lastErrors = Arrays.copyOf(lastErrors, newCapacity * errorsNumber);
     }
 
     public void clear() {
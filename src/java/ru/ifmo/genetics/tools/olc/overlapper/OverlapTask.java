@@ -19,6 +19,7 @@ public class OverlapTask implements Runnable {
     private final CharGetter saCharGetter;
 
     private ByteBuffer buffer;
+    private OverlapTaskArena arena;
 
 
     public OverlapTask(OverlapTaskContext context, int saLeft, int saRight, IntervalList readsIntervals,
@@ -30,11 +31,12 @@ public class OverlapTask implements Runnable {
         this.pos = pos;
         this.lastForkPos = lastForkPos;
 
-        readsCharGetter = new ReadsCharGetter(context);
-        saCharGetter = new SACharGetter(context);
+        readsCharGetter = context.readsCharGetter;
+        saCharGetter = context.saCharGetter;
     }
 
     public void run() {
+        arena = OverlapTaskArena.get(context.maxNumberOfErrors);
         if (context.writer != null) {
             try {
                 buffer = context.writer.getBuffer();
@@ -56,48 +58,57 @@ public class OverlapTask implements Runnable {
     private void findOverlapsWithForking(final int saLeft, final int saRight, final IntervalList readsIntervals,
                                          final int pos) {
         if (pos <= lastForkPos) {
-            context.executor.execute(new OverlapTask(context, saLeft, saRight, readsIntervals, pos, lastForkPos));
+            // the list belongs to the arena of this thread, so the forked task gets a copy
+            context.executor.execute(new OverlapTask(context, saLeft, saRight, new IntervalList(readsIntervals),
+                    pos, lastForkPos));
         } else {
             findOverlaps(saLeft, saRight, readsIntervals, pos);
         }
     }
 
+    /**
+     * Scratch arrays and lists are taken from the level pos of the arena,
+     * so the recursion doesn't allocate memory.
+     */
     void findOverlaps(int saLeft, int saRight, IntervalList readsIntervals, int pos) {
+        OverlapTaskArena.Level level = arena.level(pos);
+
         // splitting suffix array interval
-        int[] saBi = splitByCharAtPos(saLeft, saRight, pos, saCharGetter);
+        int[] saBi = level.saBi;
+        splitByCharAtPos(saLeft, saRight, pos, saCharGetter, saBi);
 
-        IntervalList[] newReadIntervals = new IntervalList[ALPHABET];
+        IntervalList[] newReadIntervals = level.newReadIntervals;
         for (int saChar : DNAindexes) {
-            if (saBi[saChar] < saBi[saChar + 1]) {
-                newReadIntervals[saChar] = new IntervalList();
-            }
+            newReadIntervals[saChar].clear();
         }
 
         // splitting reads intervals
+        int[] readsBi = level.readsBi;
+        int errorsNumber = readsIntervals.errorsNumber;
         for (int i = 0; i < readsIntervals.size; i++) {
-            int[] readsBi = splitByCharAtPos(readsIntervals.l[i], readsIntervals.r[i], pos, readsCharGetter);
+            splitByCharAtPos(readsIntervals.l[i], readsIntervals.r[i], pos, readsCharGetter, readsBi);
 
             addOverlaps(saBi, readsBi, pos);
 
             // without error
-            int[] lastErrors = readsIntervals.lastErrors[i];
+            int errorsOffset = i * errorsNumber;
             for (int ch : DNAindexes) {
-                if ((readsBi[ch] < readsBi[ch + 1]) && (newReadIntervals[ch] != null)) {
-                    newReadIntervals[ch].add(readsBi[ch], readsBi[ch + 1], lastErrors);
+                if ((readsBi[ch] < readsBi[ch + 1]) && (saBi[ch] < saBi[ch + 1])) {
+                    newReadIntervals[ch].add(readsBi[ch], readsBi[ch + 1], readsIntervals.lastErrors, errorsOffset);
                 }
             }
             // with error
             boolean canBeAnError = false;
-            if (lastErrors.length > 0) {
-                canBeAnError = (pos - lastErrors[0]) >= context.errorsWindowSize;
+            if (errorsNumber > 0) {
+                canBeAnError = (pos - readsIntervals.firstError(i)) >= context.errorsWindowSize;
             }
             if (canBeAnError) {
-                lastErrors = makeNewLastErrors(lastErrors, pos);
                 for (int readChar : DNAindexes) {
                     if (readsBi[readChar] < readsBi[readChar + 1]) {
                         for (int saChar : DNAindexes) {
-                            if ((readChar != saChar) && (newReadIntervals[saChar] != null)) {
-                                newReadIntervals[saChar].add(readsBi[readChar], readsBi[readChar + 1], lastErrors);
+                            if ((readChar != saChar) && (saBi[saChar] < saBi[saChar + 1])) {
+                                newReadIntervals[saChar].addWithError(readsBi[readChar], readsBi[readChar + 1],
+                                        readsIntervals.lastErrors, errorsOffset, pos);
                             }
                         }
                     }
@@ -107,7 +118,7 @@ public class OverlapTask implements Runnable {
 
         // recursive executing
         for (int saChar : DNAindexes) {
-            if ((newReadIntervals[saChar] != null) && (newReadIntervals[saChar].size > 0)) {
+            if ((saBi[saChar] < saBi[saChar + 1]) && (newReadIntervals[saChar].size > 0)) {
                 findOverlapsWithForking(saBi[saChar], saBi[saChar + 1], newReadIntervals[saChar], pos + 1);
             }
         }
@@ -143,7 +154,7 @@ public class OverlapTask implements Runnable {
         int from = getReadFromSuffix(suffix);
         long shift = suffix - context.readBegin[from];
 
-        int to = context.readsInBucket.get(readIndex);
+        int to = context.readsInBucket[readIndex];
 
         if ((shift == 0) && ((from == to) || (secondCase))) {
             return;
@@ -183,7 +194,12 @@ public class OverlapTask implements Runnable {
 //                ", centerShift " + centerShift);
 
         if (buffer != null) {
-            buffer.put((from + " " + to + " " + centerShift + "\n").getBytes());
+            putNumber(from);
+            buffer.put((byte) ' ');
+            putNumber(to);
+            buffer.put((byte) ' ');
+            putNumber(centerShift);
+            buffer.put((byte) '\n');
             if (buffer.position() > buffer.limit() / 2) {
                 context.writer.returnBuffer(buffer);
                 try {
@@ -198,16 +214,33 @@ public class OverlapTask implements Runnable {
     }
 
 
+    /**
+     * Writes decimal representation of x to buffer without creating a string.
+     */
+    private void putNumber(int x) {
+        if (x < 0) {
+            buffer.put((byte) '-');
+            x = -x;
+        }
+        int pow = 1;
+        while (pow <= x / 10) {
+            pow *= 10;
+        }
+        for (; pow > 0; pow /= 10) {
+            buffer.put((byte) ('0' + (x / pow) % 10));
+        }
+    }
+
+
     static {
         assert (ALPHABET == 5); // used in function below
     }
     /**
      * Divides the interval [l, r) into ALPHABET groups (at one group all strings in <code>pos</code> position
      * have the same char), and returns the array with begin index of each group. <br></br>
-     * bi[0] = l and bi[ALPHABET] = r;
+     * bi[0] = l and bi[ALPHABET] = r, bi is the array of size (ALPHABET + 1) to write the result to.
      */
-    static int[] splitByCharAtPos(int l, int r, int pos, CharGetter charGetter) {
-        int[] bi = new int[ALPHABET + 1];
+    static int[] splitByCharAtPos(int l, int r, int pos, CharGetter charGetter, int[] bi) {
         bi[0] = l;
         bi[ALPHABET] = r;
 
@@ -250,14 +283,6 @@ public class OverlapTask implements Runnable {
         return l;
     }
 
-    private int[] makeNewLastErrors(int[] lastErrors, int pos) {
-        int[] newLastErrors = new int[lastErrors.length];
-        System.arraycopy(lastErrors, 1, newLastErrors, 0, lastErrors.length - 1);
-        newLastErrors[lastErrors.length - 1] = pos;
-        return newLastErrors;
-    }
-
-
     @Override
     public String toString() {
         return "OverlapTask{" +
@@ -0,0 +1,55 @@
+package ru.ifmo.genetics.tools.olc.overlapper;
+
+import java.util.Arrays;
+
+import static ru.ifmo.genetics.tools.olc.gluedDnasString.GluedDnasString.ALPHABET;
+
+/**
+ * Scratch arrays and intervals lists of {@link OverlapTask} for one worker thread,
+ * indexed by position in reads. <br>
+ *
+ * A thread runs one task at a time and the recursion at position pos uses only level pos,
+ * so levels are reused by all tasks of the thread.
+ */
+class OverlapTaskArena {
+    private static final ThreadLocal<OverlapTaskArena> arenas = new ThreadLocal<OverlapTaskArena>();
+
+    static class Level {
+        final int[] saBi = new int[ALPHABET + 1];
+        final int[] readsBi = new int[ALPHABET + 1];
+        final IntervalList[] newReadIntervals = new IntervalList[ALPHABET];
+
+        Level(int errorsNumber) {
+            for (int i = 0; i < ALPHABET; i++) {
+                newReadIntervals[i] = new IntervalList(errorsNumber);
+            }
+        }
+    }
+
+    private final int errorsNumber;
+    private Level[] levels = new Level[0];
+
+    private OverlapTaskArena(int errorsNumber) {
+        this.errorsNumber = errorsNumber;
+    }
+
+    static OverlapTaskArena get(int errorsNumber) {
+        OverlapTaskArena arena = arenas.get();
+        if (arena == null || arena.errorsNumber != errorsNumber) {
+            arena = new OverlapTaskArena(errorsNumber);
+            arenas.set(arena);
+        }
+        return arena;
+    }
+
+    Level level(int pos) {
+        if (pos >= levels.length) {
+            int oldLength = levels.length;
+            levels = Arrays.copyOf(levels, Math.max(pos + 1, 2 * oldLength));
+            for (int i = oldLength; i < levels.length; i++) {
+                levels[i] = new Level(errorsNumber);
+            }
+        }
+        return levels[pos];
+    }
+}
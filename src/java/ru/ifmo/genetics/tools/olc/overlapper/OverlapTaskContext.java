@@ -5,7 +5,6 @@ import ru.ifmo.genetics.tools.olc.gluedDnasString.GluedDnasString;
 import ru.ifmo.genetics.tools.olc.overlaps.Overlaps;
 import ru.ifmo.genetics.tools.olc.suffixArray.SuffixArray;
 
-import java.util.ArrayList;
 import java.util.concurrent.Executor;
 
 public class OverlapTaskContext {
@@ -18,7 +17,7 @@ public class OverlapTaskContext {
     /**
      * Sorted reads.
      */
-    public final ArrayList<Integer> readsInBucket;
+    public final int[] readsInBucket;
 
     /**
      * <code>readBegin[i]</code> = position in <code>fullString</code> where read number <code>i</code> begins.
@@ -40,8 +39,11 @@ public class OverlapTaskContext {
     public final int errorsWindowSize;
     public final int minOverlap;
 
+    public final CharGetter readsCharGetter;
+    public final CharGetter saCharGetter;
+
     public OverlapTaskContext(GluedDnasString fullString,
-                              ArrayList<Integer> readsInBucket,
+                              int[] readsInBucket,
                               long[] readBegin,
                               int readsNumber,
                               int realReadsNumber,
@@ -65,13 +67,16 @@ public class OverlapTaskContext {
         this.maxNumberOfErrors = maxNumberOfErrors;
         this.errorsWindowSize = errorsWindowSize;
         this.minOverlap = minOverlap;
+
+        readsCharGetter = new ReadsCharGetter(this);
+        saCharGetter = new SACharGetter(this);
     }
 
     @Override
     public String toString() {
         return "OverlapTaskContext{" +
                 "\n\tfullString=" + fullString +
-                ", \n\treadsInBucket=" + readsInBucket.getClass() +
+                ", \n\treadsInBucket.length=" + readsInBucket.length +
                 ", \n\treadBegin=" + readBegin +
                 ", \n\treadsNumber=" + readsNumber +
                 ", \n\trealReadsNumber=" + realReadsNumber +
@@ -4,25 +4,29 @@ import ru.ifmo.genetics.dna.LightDna;
 import ru.ifmo.genetics.io.writers.DedicatedWriter;
 import ru.ifmo.genetics.statistics.Timer;
 import ru.ifmo.genetics.tools.olc.gluedDnasString.GluedDnasString;
-import ru.ifmo.genetics.utils.IntComparator;
 import ru.ifmo.genetics.executors.PatientExecutorService;
-import ru.ifmo.genetics.tools.olc.overlaps.Overlaps;
 import ru.ifmo.genetics.tools.olc.suffixArray.BucketsDivider;
 import ru.ifmo.genetics.tools.olc.suffixArray.BucketsSorter;
 import ru.ifmo.genetics.tools.olc.suffixArray.SuffixArray;
 import ru.ifmo.genetics.utils.FileUtils;
+import ru.ifmo.genetics.utils.Misc;
+import ru.ifmo.genetics.utils.Sorter;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
 import ru.ifmo.genetics.utils.tool.Parameter;
 import ru.ifmo.genetics.utils.tool.Tool;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.BoolParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.IntParameterBuilder;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.LongParameterBuilder;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static ru.ifmo.genetics.tools.olc.gluedDnasString.GluedDnasString.$index;
 import static ru.ifmo.genetics.utils.NumUtils.groupDigits;
@@ -78,8 +82,27 @@ public class Overlapper extends Tool {
             .withDescription("buckets number")
             .create());
 
+    public final Parameter<Boolean> mapBuckets = addParameter(new BoolParameterBuilder("map-buckets")
+            .optional()
+            .withDefaultValue(false)
+            .withDescription("memory-map sorted buckets instead of loading them to the heap")
+            .create());
+
 
 
+    public final Parameter<Long> searchMemory = addParameter(new LongParameterBuilder("search-memory")
+            .optional()
+            .withDescription("memory for buckets being searched simultaneously, in bytes " +
+                    "(default: 80% of memory available after loading full string)")
+            .create());
+
+
+    // constants
+    public static final String OVERLAPS_FILE_NAME = "overlaps.raw";
+    private static final int BYTES_PER_SUFFIX = 5;
+    private static final int MEMORY_UNIT_LOG = 10;
+    private static final int LAST_FORK_POS = 5;
+
     // internal variables
     private int bucketCharsNumber;
     private int bucketsNumber;
@@ -169,7 +192,11 @@ public class Overlapper extends Tool {
 
     /**
      * Searching for overlaps in all buckets. <br>
-     * Loads suffix array buckets from files and saves overlaps to files. <br>
+     * Loads suffix array buckets from files and saves overlaps to one file. <br>
+     *
+     * Several buckets are searched concurrently by one common thread pool, the next bucket is loaded
+     * while previous ones are searched. All found overlaps are written by one common writer.
+     * Total size of buckets in memory is limited by search-memory parameter. <br>
      *
      * Attention! It doesn't try to fix errors in prefix!
      */
@@ -177,97 +204,182 @@ public class Overlapper extends Tool {
         info("Searching for overlaps in all buckets...");
         Timer gt = new Timer();
 
-        showProgress("Dividing reads into buckets...");
-        ArrayList<Integer>[] readsByBucket = divideReadsIntoBuckets();
+        debug("Dividing reads into buckets...");
+        int[][] readsByBucket = divideReadsIntoBuckets();
 
-        for (int bucket = 0; bucket < bucketsNumber; bucket++) {
-            showProgress("Bucket " + (bucket + 1) + " of " + bucketsNumber + ": loading... ");
-            SuffixArray sa = BucketsSorter.loadSuffixArrayBucket(fullString, sortedBucketsDir.get(), bucket, bucketCharsNumber);
+        DedicatedWriter writer = new DedicatedWriter(overlapsDir.get().toString() + File.separator + OVERLAPS_FILE_NAME);
+        new Thread(writer).start();
 
-            addProgress("searching overlaps... ");
-            findOverlaps(bucket, readsByBucket[bucket], sa, null);
+        long memory = (searchMemory.get() != null) ? searchMemory.get() : (long) (Misc.availableMemory() * 0.8);
+        int memoryPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memory >> MEMORY_UNIT_LOG));
+        debug("Memory for buckets = " + memory + " bytes");
+        Semaphore memoryAvailable = new Semaphore(memoryPermits);
+
+        PatientExecutorService executor = new PatientExecutorService(availableProcessors.get());
+        AtomicInteger bucketsSearched = new AtomicInteger();
+        createProgressBar(bucketsNumber);
+
+        try {
+            for (int bucket = 0; bucket < bucketsNumber; bucket++) {
+                String bucketFile = sortedBucketsDir.get() + File.separator +
+                        BucketsDivider.getBucketFileName(bucket, bucketCharsNumber);
+                long bucketLength = new File(bucketFile + ".high").length();
+
+                // no overlaps can be found in a bucket without reads or suffixes
+                if (readsByBucket[bucket].length == 0 || bucketLength == 0) {
+                    updateProgressBar(bucketsSearched.incrementAndGet());
+                    continue;
+                }
+
+                // a bucket which is greater than the limit is processed alone, mapped buckets aren't in the heap
+                long bucketSize = mapBuckets.get() ? 0 : bucketLength * BYTES_PER_SUFFIX;
+                int permits = (int) Math.min(memoryPermits, (bucketSize >> MEMORY_UNIT_LOG) + 1);
+                memoryAvailable.acquire(permits);
+
+                SuffixArray sa = BucketsSorter.loadSuffixArrayBucket(fullString, sortedBucketsDir.get(), bucket,
+                        bucketCharsNumber, mapBuckets.get());
+                debug("Bucket = " + bucket + ": reads size = " + groupDigits(readsByBucket[bucket].length) + ", " +
+                        "SA length = " + groupDigits(sa.length));
+
+                new BucketOverlapTask(readsByBucket[bucket], sa, executor, writer,
+                        permits, memoryAvailable, bucketsSearched).start();
+                readsByBucket[bucket] = null;
+            }
+
+            // subtasks are submitted by running tasks, so all of them are submitted at this point
+            executor.waitForShutdown();
+        } finally {
+            destroyProgressBar();
+            writer.close();
         }
-        clearProgress();
 
         info("Searching overlaps finished in " + gt);
     }
 
-    ArrayList<Integer>[] divideReadsIntoBuckets() {
-        ArrayList<Integer>[] readsByBucket = new ArrayList[bucketsNumber];
+    int[][] divideReadsIntoBuckets() {
+        int[] bucketOfRead = new int[readsNumber];
+        int[] bucketSize = new int[bucketsNumber];
+        for (int read = 0; read < readsNumber; read++) {
+            long rb = readBegin[read];
+            bucketOfRead[read] = BucketsDivider.getBucketNumber(fullString, rb, bucketCharsNumber);
+            bucketSize[bucketOfRead[read]]++;
+        }
+
+        int[][] readsByBucket = new int[bucketsNumber][];
         for (int i = 0; i < bucketsNumber; i++) {
-            readsByBucket[i] = new ArrayList<Integer>();
+            readsByBucket[i] = new int[bucketSize[i]];
+            bucketSize[i] = 0;
         }
         for (int read = 0; read < readsNumber; read++) {
-            long rb = readBegin[read];
-            int bucket = BucketsDivider.getBucketNumber(fullString, rb, bucketCharsNumber);
-            readsByBucket[bucket].add(read);
+            int bucket = bucketOfRead[read];
+            readsByBucket[bucket][bucketSize[bucket]++] = read;
         }
         return readsByBucket;
     }
 
 
     /**
-     * Finds overlaps in one bucket. <br>
-     * if (overlaps != null) then found overlaps are saved to overlaps class,
-     * else found overlaps are written to files.<br>
-     *  
-     * Attention! It doesn't try to fix errors in prefix!
+     * Searches overlaps in one bucket in the common thread pool, releases its memory
+     * when all its subtasks are finished.
      */
-    void findOverlaps(int bucket, ArrayList<Integer> reads, SuffixArray sa, Overlaps overlaps) throws IOException, InterruptedException {
-        debug("Bucket = " + bucket + ": reads size = " + groupDigits(reads.size()) + ", " +
-                                            "SA length = " + groupDigits(sa.length));
+    private class BucketOverlapTask implements Executor {
+        private final int[] reads;
+        private final Executor executor;
+        private final OverlapTaskContext context;
+
+        private final int memoryPermits;
+        private final Semaphore memoryAvailable;
+        private final AtomicInteger bucketsSearched;
+
+        private final AtomicInteger jobs = new AtomicInteger();
+
+        BucketOverlapTask(int[] reads, SuffixArray sa, Executor executor, DedicatedWriter writer,
+                          int memoryPermits, Semaphore memoryAvailable, AtomicInteger bucketsSearched) {
+            this.reads = reads;
+            this.executor = executor;
+            this.memoryPermits = memoryPermits;
+            this.memoryAvailable = memoryAvailable;
+            this.bucketsSearched = bucketsSearched;
+
+            context = new OverlapTaskContext(
+                    fullString,
+                    reads,
+                    readBegin,
+                    readsNumber,
+                    realReadsNumber,
+                    sa,
+                    this,
+                    writer,
+                    null,
+                    errorsNumber.get(),
+                    errorsWindowSize.get(),
+                    minOverlap.get()
+            );
+        }
 
-        Collections.sort(reads, new ReadsComparator());
+        void start() {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    Sorter.sort(0, reads.length, new ReadsSortTraits(reads));
 
-        PatientExecutorService executor = new PatientExecutorService(availableProcessors.get());
+                    IntervalList readsInterval = new IntervalList(errorsNumber.get());
+                    int[] lastErrors = new int[errorsNumber.get()];
+                    Arrays.fill(lastErrors, -errorsWindowSize.get());
+                    readsInterval.add(0, reads.length, lastErrors);
 
-        DedicatedWriter writer = null;
-        if (overlaps == null) {
-            writer = new DedicatedWriter(overlapsDir.get().toString() + File.separator +
-                    getOverlapsFileName(bucket, bucketCharsNumber));
-            new Thread(writer).start();
+                    new OverlapTask(context, 0, context.sa.length, readsInterval, 0, LAST_FORK_POS).run();
+                }
+            });
         }
-        OverlapTaskContext overlapTaskContext = new OverlapTaskContext(
-                fullString,
-                reads,
-                readBegin,
-                readsNumber,
-                realReadsNumber,
-                sa,
-                executor,
-                writer,
-                overlaps,
-                errorsNumber.get(),
-                errorsWindowSize.get(),
-                minOverlap.get()
-        );
-
-        IntervalList readsInterval = new IntervalList();
-        int[] lastErrors = new int[errorsNumber.get()];
-        Arrays.fill(lastErrors, -errorsWindowSize.get());
-        readsInterval.add(0, reads.size(), lastErrors);
-
-        executor.execute(new OverlapTask(overlapTaskContext, 0, sa.length, readsInterval, 0, 5));
-
-        executor.waitForShutdown();
-
-        if (writer != null) {
-            writer.close();
+
+        /**
+         * Subtasks are submitted from running tasks of this bucket, so the counter reaches zero
+         * only when the whole bucket is searched.
+         */
+        @Override
+        public void execute(final Runnable task) {
+            jobs.incrementAndGet();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        if (jobs.decrementAndGet() == 0) {
+                            memoryAvailable.release(memoryPermits);
+                            updateProgressBar(bucketsSearched.incrementAndGet());
+                        }
+                    }
+                }
+            });
         }
     }
-    
 
 
-    private class ReadsComparator extends IntComparator {
-        public int compare(int a, int b) {
+
+    /**
+     * Sorts read numbers by reads.
+     */
+    private class ReadsSortTraits implements Sorter.SortTraits {
+        private final int[] reads;
+
+        ReadsSortTraits(int[] reads) {
+            this.reads = reads;
+        }
+
+        @Override
+        public int compare(int i, int j) {
+            int a = reads[i];
+            int b = reads[j];
             long aLen = readBegin[a + 1] - readBegin[a];
             long bLen = readBegin[b + 1] - readBegin[b];
             long aBegin = readBegin[a];
             long bBegin = readBegin[b];
             long len = Math.min(aLen, bLen);
-            for (long i = 0; i < len; ++i) {
-                int ca = fullString.get(aBegin + i);
-                int cb = fullString.get(bBegin + i);
+            for (long k = 0; k < len; ++k) {
+                int ca = fullString.get(aBegin + k);
+                int cb = fullString.get(bBegin + k);
                 if (ca != cb)
                     return ca - cb;
             }
@@ -276,10 +388,12 @@ public class Overlapper extends Tool {
             return (aLen < bLen) ? -1 : 1;
         }
 
-    }
-
-    public static String getOverlapsFileName(int bucket, int charsNumber) {
-        return "overlaps" + BucketsDivider.getBucketName(bucket, charsNumber) + ".raw";
+        @Override
+        public void swap(int i, int j) {
+            int t = reads[i];
+            reads[i] = reads[j];
+            reads[j] = t;
+        }
     }
 
 
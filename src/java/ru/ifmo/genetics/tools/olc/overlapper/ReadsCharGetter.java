@@ -9,7 +9,7 @@ public class ReadsCharGetter implements CharGetter {
 
     @Override
     public int getChar(int indexInList, int posInStr) {
-        int read = context.readsInBucket.get(indexInList);
+        int read = context.readsInBucket[indexInList];
         long readBegin = context.readBegin[read];
         return context.fullString.get(readBegin + posInStr);
     }
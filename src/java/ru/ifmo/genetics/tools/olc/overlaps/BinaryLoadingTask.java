@@ -0,0 +1,52 @@
+package ru.ifmo.genetics.tools.olc.overlaps;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Loads overlaps lists of reads [begin, end) from mapped part of binary overlaps file.
+ */
+public class BinaryLoadingTask implements Runnable {
+    Overlaps<?> overlaps;
+    BinaryOverlaps file;
+    ByteBuffer data;
+    int begin;
+    int end;
+    boolean direct;
+
+    public BinaryLoadingTask(Overlaps<?> overlaps, BinaryOverlaps file, ByteBuffer data, int begin, int end,
+                             boolean direct) {
+        this.overlaps = overlaps;
+        this.file = file;
+        this.data = data;
+        this.begin = begin;
+        this.end = end;
+        this.direct = direct;
+    }
+
+    @Override
+    public void run() {
+        IntBuffer buffer = data.asIntBuffer();
+        for (int i = begin; i < end; i++) {
+            if (file.isRemoved(i)) {
+                overlaps.markReadRemoved(i);
+                continue;
+            }
+            int n = file.listSize(i);
+            if (direct) {
+                OverlapsList list = new OverlapsList(n, file.withWeights);
+                list.load(buffer, n, file.isSorted(i));
+                overlaps.overlaps.set(i, list);
+            } else {
+                int pos = buffer.position();
+                for (int j = 0; j < n; j++) {
+                    int to = buffer.get(pos + j);
+                    int shift = buffer.get(pos + n + j);
+                    int weight = file.withWeights ? buffer.get(pos + 2 * n + j) : 0;
+                    overlaps.addOverlapWithSync(i, to, shift, weight);
+                }
+                buffer.position(pos + (file.withWeights ? 3 : 2) * n);
+            }
+        }
+    }
+}
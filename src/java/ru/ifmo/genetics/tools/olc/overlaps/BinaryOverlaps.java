@@ -0,0 +1,219 @@
+package ru.ifmo.genetics.tools.olc.overlaps;
+
+import ru.ifmo.genetics.executors.BlockingThreadPoolExecutor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary format of overlaps, it is a dump of all {@link Overlaps} lists. <br>
+ *
+ * File starts with header (int magic, int version, int withWeights, int readsNumber),
+ * then (readsNumber + 1) longs of index follow, i-th of them is the number of overlaps before read i,
+ * and then readsNumber bytes of read flags. After that overlaps lists of all reads go in read order,
+ * each list is stored as its tos, then its center shifts, then its weights if overlaps are with weights.
+ * All numbers are big-endian. <br>
+ *
+ * Lists are loaded by memory-mapping ranges of the file, different reads are loaded in parallel.
+ */
+public class BinaryOverlaps {
+    // "OVLP", text overlaps file can't start with it
+    static final int MAGIC = 0x4F564C50;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    static final byte REMOVED = 1;
+    static final byte SORTED = 2;
+
+    static final long TASK_OVERLAPS = 1 << 22;
+
+    final File file;
+    final boolean withWeights;
+    final int readsNumber;
+
+    private final long[] index;
+    private final byte[] flags;
+    private final long dataOffset;
+
+    /**
+     * Reads header and index of the file.
+     */
+    public BinaryOverlaps(File file) throws IOException {
+        this.file = file;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("File " + file + " is not a binary overlaps file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary overlaps version " + version + " in file " + file);
+            }
+            withWeights = in.readInt() != 0;
+            readsNumber = in.readInt();
+
+            index = new long[readsNumber + 1];
+            FileChannel channel = in.getChannel();
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            for (int i = 0; i < index.length; ) {
+                int n = Math.min(index.length - i, buf.capacity() / 8);
+                buf.clear();
+                buf.limit(8 * n);
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf) == -1) {
+                        throw new EOFException();
+                    }
+                }
+                buf.flip();
+                buf.asLongBuffer().get(index, i, n);
+                i += n;
+            }
+            flags = new byte[readsNumber];
+            in.readFully(flags);
+        } finally {
+            in.close();
+        }
+        dataOffset = HEADER_SIZE + 8L * (readsNumber + 1) + readsNumber;
+    }
+
+    public static boolean isBinary(File file) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads only header of binary file.
+     */
+    public static boolean isWithWeights(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.skipBytes(8);
+            return in.readInt() != 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    public long overlapsNumber() {
+        return index[readsNumber];
+    }
+
+    private int fieldsNumber() {
+        return withWeights ? 3 : 2;
+    }
+
+    private long listOffset(int read) {
+        return dataOffset + index[read] * 4 * fieldsNumber();
+    }
+
+
+    /**
+     * Loads overlaps to overlaps class in parallel. <br>
+     *
+     * If direct then overlaps lists are created from the file as is, overlaps shouldn't contain other lists
+     * and should have the same withWeights value. Otherwise overlaps are added one by one with synchronization.
+     */
+    public void load(Overlaps<?> overlaps, boolean direct) throws IOException, InterruptedException {
+        if (overlaps.readsNumber != readsNumber) {
+            throw new IOException("Reads number in file " + file + " (" + readsNumber + ") " +
+                    "differs from loaded reads number " + overlaps.readsNumber);
+        }
+        assert !direct || overlaps.withWeights == withWeights;
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            BlockingThreadPoolExecutor executor = new BlockingThreadPoolExecutor(overlaps.availableProcessors);
+            int begin = 0;
+            while (begin < readsNumber) {
+                int end = begin + 1;
+                while (end < readsNumber && index[end + 1] - index[begin] <= TASK_OVERLAPS) {
+                    end++;
+                }
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY,
+                        listOffset(begin), listOffset(end) - listOffset(begin));
+                executor.blockingExecute(new BinaryLoadingTask(overlaps, this, data, begin, end, direct));
+                begin = end;
+            }
+            executor.shutdownAndAwaitTermination();
+        } finally {
+            in.close();
+        }
+    }
+
+    int listSize(int read) {
+        return (int) (index[read + 1] - index[read]);
+    }
+
+    boolean isRemoved(int read) {
+        return (flags[read] & REMOVED) != 0;
+    }
+
+    boolean isSorted(int read) {
+        return (flags[read] & SORTED) != 0;
+    }
+
+
+    /**
+     * Writes overlaps to file, overlaps to removed reads are skipped as in {@link Overlaps#printToFile(File)}.
+     */
+    public static void write(Overlaps<?> overlaps, File file) throws IOException {
+        int readsNumber = overlaps.readsNumber;
+        long[] index = new long[readsNumber + 1];
+        byte[] flags = new byte[readsNumber];
+        for (int i = 0; i < readsNumber; i++) {
+            OverlapsList list = overlaps.overlaps.get(i);
+            int n = 0;
+            if (list == null) {
+                flags[i] = REMOVED;
+            } else {
+                list = overlaps.getList(i);
+                for (int j = 0; j < list.size(); j++) {
+                    if (overlaps.overlaps.get(list.getTo(j)) != null) {
+                        n++;
+                    }
+                }
+                flags[i] = list.isSorted() ? SORTED : 0;
+            }
+            index[i + 1] = index[i] + n;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(overlaps.withWeights ? 1 : 0);
+            out.writeInt(readsNumber);
+            for (long x : index) {
+                out.writeLong(x);
+            }
+            out.write(flags);
+
+            for (int i = 0; i < readsNumber; i++) {
+                if ((flags[i] & REMOVED) != 0) {
+                    continue;
+                }
+                OverlapsList list = overlaps.getList(i);
+                int fields = overlaps.withWeights ? 3 : 2;
+                for (int f = 0; f < fields; f++) {
+                    for (int j = 0; j < list.size(); j++) {
+                        if (overlaps.overlaps.get(list.getTo(j)) == null) {
+                            continue;
+                        }
+                        out.writeInt((f == 0) ? list.getTo(j) : (f == 1) ? list.getCenterShift(j) : list.getWeight(j));
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
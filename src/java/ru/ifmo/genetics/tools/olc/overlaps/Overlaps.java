@@ -14,14 +14,14 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
 public class Overlaps<T extends LightDna> {
     final AtomicReferenceArray<OverlapsList> overlaps;
 
-    public final ArrayList<T> reads;
+    public final List<T> reads;
     public final int readsNumber;
 
     public final boolean withWeights;
@@ -29,7 +29,7 @@ public class Overlaps<T extends LightDna> {
     private static int defaultCapacity = 2;
 
 
-    protected Overlaps(ArrayList<T> reads, int availableProcessors, boolean createLists, boolean withWeights) {
+    protected Overlaps(List<T> reads, int availableProcessors, boolean createLists, boolean withWeights) {
         assert assertReadsAreWithRCCopy(reads);
 
         this.reads = reads;
@@ -52,7 +52,7 @@ public class Overlaps<T extends LightDna> {
         }
     }
 
-    protected Overlaps(ArrayList<T> reads, Configuration config, boolean createLists, boolean withWeights) {
+    protected Overlaps(List<T> reads, Configuration config, boolean createLists, boolean withWeights) {
         this(reads, config.getInt("available_processors"), createLists, withWeights);
     }
     
@@ -60,16 +60,16 @@ public class Overlaps<T extends LightDna> {
         this(other.reads, other.availableProcessors, createLists, withWeights);
     }
 
-    public Overlaps(ArrayList<T> reads, int availableProcessors, boolean withWeights) {
+    public Overlaps(List<T> reads, int availableProcessors, boolean withWeights) {
         this(reads, availableProcessors, true, withWeights);
     }
 
-    public Overlaps(ArrayList<T> reads, boolean withWeights) {
+    public Overlaps(List<T> reads, boolean withWeights) {
         this(reads, Runtime.getRuntime().availableProcessors(), true, withWeights);
     }
 
-    public Overlaps(ArrayList<T> reads, File[] overlapsFiles, int availableProcessors, boolean[] removedReads) throws IOException, InterruptedException {
-        this(reads, availableProcessors, false, !overlapsFiles[0].getName().contains(".raw"));
+    public Overlaps(List<T> reads, File[] overlapsFiles, int availableProcessors, boolean[] removedReads) throws IOException, InterruptedException {
+        this(reads, availableProcessors, false, isWithWeights(overlapsFiles[0]));
 
         // marking removed reads
         if (removedReads != null) {
@@ -82,14 +82,31 @@ public class Overlaps<T extends LightDna> {
         
         // loading
         long inputOverlapsNumber = 0;
-        for (File f : overlapsFiles) {
-            inputOverlapsNumber += FileUtils.linesNumber(f);
+        BinaryOverlaps[] binaryFiles = new BinaryOverlaps[overlapsFiles.length];
+        for (int i = 0; i < overlapsFiles.length; i++) {
+            if (BinaryOverlaps.isBinary(overlapsFiles[i])) {
+                binaryFiles[i] = new BinaryOverlaps(overlapsFiles[i]);
+                inputOverlapsNumber += binaryFiles[i].overlapsNumber();
+            } else {
+                inputOverlapsNumber += FileUtils.linesNumber(overlapsFiles[i]);
+            }
         }
         defaultCapacity = (inputOverlapsNumber == 0) ? 0 :
                 (int)(inputOverlapsNumber / readsNumber / 2) + 1;
 
-        for (File f : overlapsFiles) {
-            DedicatedLineReader overlapsReader = new DedicatedLineReader(f, availableProcessors);
+        // a single binary file is loaded as is
+        if (overlapsFiles.length == 1 && removedReads == null && binaryFiles[0] != null) {
+            binaryFiles[0].load(this, true);
+            return;
+        }
+
+        for (int i = 0; i < overlapsFiles.length; i++) {
+            if (binaryFiles[i] != null) {
+                binaryFiles[i].load(this, false);
+                continue;
+            }
+
+            DedicatedLineReader overlapsReader = new DedicatedLineReader(overlapsFiles[i], availableProcessors);
             overlapsReader.start();
 
             BlockingThreadPoolExecutor executor = new BlockingThreadPoolExecutor(availableProcessors);
@@ -106,17 +123,25 @@ public class Overlaps<T extends LightDna> {
         }
     }
 
-    public Overlaps(ArrayList<T> reads, File[] overlapsFiles, int availableProcessors) throws IOException, InterruptedException {
+    public Overlaps(List<T> reads, File[] overlapsFiles, int availableProcessors) throws IOException, InterruptedException {
         this(reads, overlapsFiles, availableProcessors, null);
     }
 
-    public Overlaps(ArrayList<T> reads, File[] overlapsFiles) throws IOException, InterruptedException {
+    public Overlaps(List<T> reads, File[] overlapsFiles) throws IOException, InterruptedException {
         this(reads, overlapsFiles, Runtime.getRuntime().availableProcessors());
     }
 
 
 
-    public static <T extends LightDna> boolean assertReadsAreWithRCCopy(ArrayList<T> reads) {
+    private static boolean isWithWeights(File overlapsFile) throws IOException {
+        if (BinaryOverlaps.isBinary(overlapsFile)) {
+            return BinaryOverlaps.isWithWeights(overlapsFile);
+        }
+        return !overlapsFile.getName().contains(".raw");
+    }
+
+
+    public static <T extends LightDna> boolean assertReadsAreWithRCCopy(List<T> reads) {
         assert reads.size() % 2 == 0;
         for (int i = 0; i < reads.size(); i += 2) {
             assert DnaTools.equals(DnaView.rcView(reads.get(i)), reads.get(i + 1));
@@ -390,7 +415,11 @@ public class Overlaps<T extends LightDna> {
         return result;
     }
 
-    public void removeOverlapsWithNull(int i) {
+    /**
+     * Removes overlaps of read i with removed reads.
+     * @return number of removed overlaps
+     */
+    public int removeOverlapsWithNull(int i) {
         OverlapsList list = getList(i);
         int size = list.size();
         int removed = 0;
@@ -404,6 +433,7 @@ public class Overlaps<T extends LightDna> {
         for (int j = 0; j < removed; ++j) {
             list.removeLast();
         }
+        return removed;
     }
 
 
@@ -449,6 +479,13 @@ public class Overlaps<T extends LightDna> {
         out.close();
     }
 
+    /**
+     * Saves overlaps in binary format, see {@link BinaryOverlaps}.
+     */
+    public void saveToBinaryFile(File outputFile) throws IOException {
+        BinaryOverlaps.write(this, outputFile);
+    }
+
 
     public static int beginShiftToCenterShiftUsingLen(int length1, int length2, int beginShift) {
         return 2 * beginShift + length2 - length1;
@@ -3,6 +3,7 @@ package ru.ifmo.genetics.tools.olc.overlaps;
 import ru.ifmo.genetics.utils.NumUtils;
 import ru.ifmo.genetics.utils.Sorter;
 
+import java.nio.IntBuffer;
 import java.util.Arrays;
 
 public class OverlapsList {
@@ -186,6 +187,25 @@ public class OverlapsList {
         }
     }
 
+    /**
+     * Fills empty list with n overlaps from buffer: n tos, then n center shifts, then n weights if list is with weights.
+     */
+    void load(IntBuffer buffer, int n, boolean sorted) {
+        assert isEmpty();
+        ensureCapacity(n);
+        buffer.get(tos, 0, n);
+        buffer.get(centerShifts, 0, n);
+        if (isWithWeights()) {
+            buffer.get(weights, 0, n);
+        }
+        size = n;
+        this.sorted = sorted;
+    }
+
+    boolean isSorted() {
+        return sorted;
+    }
+
     public void ensureCapacity(int minCapacity) {
         if (tos.length >= minCapacity)
             return;
@@ -0,0 +1,264 @@
+package ru.ifmo.genetics.tools.olc.reads;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import ru.ifmo.genetics.dna.AbstractLightDna;
+import ru.ifmo.genetics.dna.DnaTools;
+import ru.ifmo.genetics.dna.LightDna;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Reads with their reverse-complement copies, as they are used by OLC tools. Immutable. <br>
+ *
+ * Nucleotides of all reads are stored in one array of longs, 2 bits per nucleotide,
+ * read k occupies nucleotides [offsets[k], offsets[k + 1]).
+ * Element 2k of the list is the view of read k and element 2k+1 is the reverse-complement view of it,
+ * so reverse-complement copies take no memory. <br>
+ *
+ * Reads are loaded from binary file reads-file.packed near the reads file with bulk reads of the whole arrays.
+ * If there is no such file or it is older than the reads file, reads are parsed from the reads file
+ * and binary file is created for the next loads. <br>
+ *
+ * Binary file starts with header (int magic, int version, long reads file length, int reads number,
+ * long nucleotides number), then (reads number + 1) longs of offsets and then longs of nucleotides follow.
+ * All numbers are big-endian.
+ */
+public class PackedReads extends AbstractList<LightDna> implements RandomAccess {
+    public static final String PACKED_FILE_SUFFIX = ".packed";
+
+    // "RDPK"
+    static final int MAGIC = 0x5244504B;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 28;
+
+    private static final int NUCS_IN_LONG_LOG = 5;
+    private static final int NUCS_IN_LONG = 1 << NUCS_IN_LONG_LOG;
+    private static final int INDEX_MASK = NUCS_IN_LONG - 1;
+    private static final int NUC_SIZE_BITS = 2;
+    private static final long NUC_MASK = (1 << NUC_SIZE_BITS) - 1;
+
+    private final long[] nucs;
+    private final long[] offsets;
+    private final int readsNumber;
+
+    private PackedReads(long[] nucs, long[] offsets) {
+        this.nucs = nucs;
+        this.offsets = offsets;
+        readsNumber = offsets.length - 1;
+    }
+
+
+    /**
+     * Loads reads from fasta file, adding reverse-complement copies.
+     */
+    public static PackedReads load(File readsFile) throws IOException {
+        File packedFile = getPackedFile(readsFile);
+        if (packedFile.exists() && packedFile.lastModified() >= readsFile.lastModified()) {
+            PackedReads reads = loadPacked(packedFile, readsFile.length());
+            if (reads != null) {
+                return reads;
+            }
+        }
+
+        PackedReads reads = parse(readsFile);
+        try {
+            reads.save(packedFile, readsFile.length());
+        } catch (IOException e) {
+            // binary file only speeds up next loads, reads directory can be read-only
+            packedFile.delete();
+        }
+        return reads;
+    }
+
+    public static PackedReads load(String readsFile) throws IOException {
+        return load(new File(readsFile));
+    }
+
+    public static File getPackedFile(File readsFile) {
+        return new File(readsFile.getPath() + PACKED_FILE_SUFFIX);
+    }
+
+
+    private static PackedReads parse(File readsFile) throws IOException {
+        // nucleotides number isn't greater than file length
+        long[] nucs = new long[(int) ((readsFile.length() + NUCS_IN_LONG - 1) >> NUCS_IN_LONG_LOG)];
+        LongArrayList offsets = new LongArrayList();
+
+        InputStream in = new BufferedInputStream(new FileInputStream(readsFile), 1 << 20);
+        try {
+            byte[] buf = new byte[1 << 16];
+            long x = 0;
+            boolean inHeader = false;
+            boolean lineStart = true;
+            while (true) {
+                int read = in.read(buf);
+                if (read == -1) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    byte c = buf[i];
+                    if (c == '\n' || c == '\r') {
+                        inHeader = false;
+                        lineStart = true;
+                        continue;
+                    }
+                    if (lineStart && c == '>') {
+                        offsets.add(x);
+                        inHeader = true;
+                    } else if (!inHeader) {
+                        if (offsets.isEmpty()) {
+                            throw new IOException("Reads file " + readsFile + " isn't in fasta format");
+                        }
+                        nucs[(int) (x >>> NUCS_IN_LONG_LOG)] |=
+                                (long) DnaTools.fromChar((char) c) << (NUC_SIZE_BITS * (int) (x & INDEX_MASK));
+                        x++;
+                    }
+                    lineStart = false;
+                }
+            }
+            offsets.add(x);
+            nucs = Arrays.copyOf(nucs, (int) ((x + NUCS_IN_LONG - 1) >> NUCS_IN_LONG_LOG));
+        } finally {
+            in.close();
+        }
+        return new PackedReads(nucs, offsets.toLongArray());
+    }
+
+    /**
+     * Returns null if binary file is broken or was created for another reads file.
+     */
+    private static PackedReads loadPacked(File packedFile, long readsFileLength) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(packedFile, "r");
+        try {
+            if (in.length() < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION ||
+                    in.readLong() != readsFileLength) {
+                return null;
+            }
+            int readsNumber = in.readInt();
+            long nucsNumber = in.readLong();
+            long nucLongs = (nucsNumber + NUCS_IN_LONG - 1) >> NUCS_IN_LONG_LOG;
+            if (readsNumber < 0 || nucsNumber < 0 || nucLongs > Integer.MAX_VALUE ||
+                    in.length() != HEADER_SIZE + 8 * ((long) readsNumber + 1) + 8 * nucLongs) {
+                return null;
+            }
+
+            long[] offsets = new long[readsNumber + 1];
+            long[] nucs = new long[(int) nucLongs];
+            FileChannel channel = in.getChannel();
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            readLongs(channel, buf, offsets);
+            readLongs(channel, buf, nucs);
+            return new PackedReads(nucs, offsets);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void readLongs(FileChannel channel, ByteBuffer buf, long[] array) throws IOException {
+        for (int i = 0; i < array.length; ) {
+            int n = Math.min(array.length - i, buf.capacity() / 8);
+            buf.clear();
+            buf.limit(8 * n);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) == -1) {
+                    throw new EOFException();
+                }
+            }
+            buf.flip();
+            buf.asLongBuffer().get(array, i, n);
+            i += n;
+        }
+    }
+
+    /**
+     * Writes binary file to a temporary file first, so that an interrupted save doesn't leave a broken file.
+     */
+    private void save(File packedFile, long readsFileLength) throws IOException {
+        File tmpFile = new File(packedFile.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 20));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(readsFileLength);
+                out.writeInt(readsNumber);
+                out.writeLong(offsets[readsNumber]);
+                for (long x : offsets) {
+                    out.writeLong(x);
+                }
+                for (long x : nucs) {
+                    out.writeLong(x);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        }
+        // renameTo doesn't replace existing files on some platforms
+        packedFile.delete();
+        if (!tmpFile.renameTo(packedFile)) {
+            tmpFile.delete();
+            throw new IOException("Can't rename " + tmpFile + " to " + packedFile);
+        }
+    }
+
+
+    /**
+     * Returns doubled reads number, i.e. with reverse-complement copies.
+     */
+    @Override
+    public int size() {
+        return 2 * readsNumber;
+    }
+
+    @Override
+    public LightDna get(int i) {
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size());
+        }
+        return new ReadView(i);
+    }
+
+    public int length(int i) {
+        int k = i >> 1;
+        return (int) (offsets[k + 1] - offsets[k]);
+    }
+
+    public byte nucAt(int i, int index) {
+        int k = i >> 1;
+        if ((i & 1) == 0) {
+            return getNuc(offsets[k] + index);
+        }
+        return (byte) (getNuc(offsets[k + 1] - 1 - index) ^ 3);
+    }
+
+    private byte getNuc(long x) {
+        return (byte) ((nucs[(int) (x >>> NUCS_IN_LONG_LOG)] >>> (NUC_SIZE_BITS * (int) (x & INDEX_MASK))) & NUC_MASK);
+    }
+
+
+    private class ReadView extends AbstractLightDna {
+        private final int i;
+
+        ReadView(int i) {
+            this.i = i;
+        }
+
+        @Override
+        public int length() {
+            return PackedReads.this.length(i);
+        }
+
+        @Override
+        public byte nucAt(int index) {
+            return PackedReads.this.nucAt(i, index);
+        }
+    }
+}
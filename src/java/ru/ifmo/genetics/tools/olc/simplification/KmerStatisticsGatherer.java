@@ -26,6 +26,7 @@ public class KmerStatisticsGatherer extends Tool {
     public static final String DESCRIPTION = "gathers kmer statistic from fastq files";
 
     static final int LOAD_TASK_SIZE = 1 << 15;
+    static final int LOAD_BUFFER_SIZE = 1 << 16;
 
 
     // input parameters
@@ -81,6 +82,7 @@ public class KmerStatisticsGatherer extends Tool {
         for (int i = 0; i < workers.length; ++i) {
             workers[i] = new KmerLoadWorker(dispatcher, latch, new Random(42),
                     k.get(), Misc.availableMemory(), hm, 0, 0, 0, kmerIteratorFactory.get());
+            workers[i].setBufferSize(LOAD_BUFFER_SIZE);
             new Thread(workers[i]).start();
         }
 
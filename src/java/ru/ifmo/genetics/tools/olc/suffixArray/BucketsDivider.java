@@ -48,15 +48,7 @@ public class BucketsDivider extends Tool {
                 return null;
             }
 
-            double len = fullString.length;
-            double mem = Misc.availableMemory();
-
-            long A = (long) ceil(5 * len / (mem * 0.9 - 100e6));
-            long B = (long) ceil(len / 2e9);
-            
-            int k = (int) max(0, ceil(log(max(A, B)) / log(4)));
-
-            return k;
+            return getAutoBucketCharsNumber(fullString.length);
         }
         @Override
         public String description() {
@@ -148,6 +140,22 @@ public class BucketsDivider extends Tool {
     }
 
 
+    /**
+     * Chooses bucket chars number so that any bucket fits in available memory.
+     */
+    public static int getAutoBucketCharsNumber(long fullStringLength) {
+        double len = fullStringLength;
+        double mem = Misc.availableMemory();
+
+        long A = (long) ceil(5 * len / (mem * 0.9 - 100e6));
+        long B = (long) ceil(len / 2e9);
+
+        int k = (int) max(0, ceil(log(max(A, B)) / log(4)));
+
+        return k;
+    }
+
+
     private int getBucketNumber(long pos) {
         return getBucketNumber(fullString, pos, bucketCharsNumber);
     }
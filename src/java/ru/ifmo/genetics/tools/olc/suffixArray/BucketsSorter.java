@@ -4,17 +4,21 @@ import ru.ifmo.genetics.statistics.Timer;
 import ru.ifmo.genetics.executors.PatientExecutorService;
 import ru.ifmo.genetics.tools.olc.gluedDnasString.GluedDnasString;
 import ru.ifmo.genetics.utils.FileUtils;
+import ru.ifmo.genetics.utils.Misc;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
 import ru.ifmo.genetics.utils.tool.Parameter;
 import ru.ifmo.genetics.utils.tool.Tool;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.IntParameterBuilder;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.LongParameterBuilder;
 import ru.ifmo.genetics.utils.tool.values.InMemoryValue;
 import ru.ifmo.genetics.utils.tool.values.InValue;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static ru.ifmo.genetics.tools.olc.gluedDnasString.GluedDnasString.$index;
 import static ru.ifmo.genetics.tools.olc.gluedDnasString.GluedDnasString.ALPHABET;
@@ -52,6 +56,17 @@ public class BucketsSorter extends Tool {
             .create());
 
 
+    public final Parameter<Long> sortMemory = addParameter(new LongParameterBuilder("sort-memory")
+            .optional()
+            .withDescription("memory for buckets being loaded, sorted and saved simultaneously, in bytes " +
+                    "(default: 80% of memory available after loading full string)")
+            .create());
+
+
+    // constants
+    private static final int BYTES_PER_SUFFIX = 5;
+    private static final int MEMORY_UNIT_LOG = 10;
+
     // internal variables
     private int bucketCharsNumber;
     private int bucketsNumber;
@@ -89,7 +104,11 @@ public class BucketsSorter extends Tool {
 
 
     /**
-     * Loads all suffix buckets, sorts and saves them to files sbucketX.high/low in dir.
+     * Loads all suffix buckets, sorts and saves them to files sbucketX.high/low in dir. <br>
+     *
+     * Loading, sorting and saving are pipelined: the next bucket is loaded while previous ones are sorted,
+     * several buckets are sorted concurrently by one common thread pool, and sorted buckets are saved
+     * in a separate thread. Total size of buckets in memory is limited by sort-memory parameter.
      */
     private void sortAllBuckets() throws IOException, InterruptedException {
         info("Sorting all buckets...");
@@ -97,23 +116,114 @@ public class BucketsSorter extends Tool {
 
         FileUtils.createOrClearDir(sortedBucketsDir.get());
 
-        for (int i = 0; i < bucketsNumber; i++) {
-            showProgress("Bucket " + (i + 1) + " of " + bucketsNumber + ": loading... ");
-            String bucketFileName = BucketsDivider.getBucketFileName(i, bucketCharsNumber);
-            SuffixArray sa = new SuffixArray(fullString, bucketsDir.get() + File.separator + bucketFileName);
+        long memory = (sortMemory.get() != null) ? sortMemory.get() : (long) (Misc.availableMemory() * 0.8);
+        int memoryPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memory >> MEMORY_UNIT_LOG));
+        debug("Memory for buckets = " + memory + " bytes");
+        final Semaphore memoryAvailable = new Semaphore(memoryPermits);
 
-            addProgress("sorting... ");
-            sort(sa);
+        PatientExecutorService sortExecutor = new PatientExecutorService(availableProcessors.get());
+        PatientExecutorService saveExecutor = new PatientExecutorService(1);
+        final AtomicInteger bucketsSaved = new AtomicInteger();
+        createProgressBar(bucketsNumber);
 
-            addProgress("saving... ");
-            sa.save(sortedBucketsDir.get() + File.separator + bucketFileName);
-            sa = null;
+        try {
+            for (int i = 0; i < bucketsNumber; i++) {
+                String bucketFileName = BucketsDivider.getBucketFileName(i, bucketCharsNumber);
+                String bucketFile = bucketsDir.get() + File.separator + bucketFileName;
+
+                // a bucket which is greater than the limit is processed alone
+                long bucketSize = new File(bucketFile + ".high").length() * BYTES_PER_SUFFIX;
+                int permits = (int) Math.min(memoryPermits, (bucketSize >> MEMORY_UNIT_LOG) + 1);
+                memoryAvailable.acquire(permits);
+
+                SuffixArray sa = new SuffixArray(fullString, bucketFile);
+                new BucketSortTask(sa, sortedBucketsDir.get() + File.separator + bucketFileName, permits,
+                        sortExecutor, saveExecutor, memoryAvailable, bucketsSaved).start();
+            }
+
+            // saving tasks are submitted by sorting tasks, so all of them are submitted at this point
+            sortExecutor.waitForShutdown();
+            saveExecutor.waitForShutdown();
+        } finally {
+            destroyProgressBar();
         }
-        clearProgress();
-        
+
         info("Done, it took " + t);
     }
 
+    /**
+     * Sorts one bucket in the common thread pool and saves it when all its subtasks are finished.
+     */
+    private class BucketSortTask implements Executor {
+        private final SuffixArray sa;
+        private final String outFileName;
+        private final int memoryPermits;
+
+        private final Executor sortExecutor;
+        private final Executor saveExecutor;
+        private final Semaphore memoryAvailable;
+        private final AtomicInteger bucketsSaved;
+
+        private final AtomicInteger jobs = new AtomicInteger();
+
+        BucketSortTask(SuffixArray sa, String outFileName, int memoryPermits, Executor sortExecutor,
+                       Executor saveExecutor, Semaphore memoryAvailable, AtomicInteger bucketsSaved) {
+            this.sa = sa;
+            this.outFileName = outFileName;
+            this.memoryPermits = memoryPermits;
+            this.sortExecutor = sortExecutor;
+            this.saveExecutor = saveExecutor;
+            this.memoryAvailable = memoryAvailable;
+            this.bucketsSaved = bucketsSaved;
+        }
+
+        void start() {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    bucketSort(BucketSortTask.this, sa, 0, sa.length, bucketCharsNumber);
+                }
+            });
+        }
+
+        /**
+         * Subtasks are submitted from running tasks of this bucket, so the counter reaches zero
+         * only when the whole bucket is sorted.
+         */
+        @Override
+        public void execute(final Runnable task) {
+            jobs.incrementAndGet();
+            sortExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        if (jobs.decrementAndGet() == 0) {
+                            save();
+                        }
+                    }
+                }
+            });
+        }
+
+        private void save() {
+            saveExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sa.save(outFileName);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Can't save bucket to " + outFileName, e);
+                    } finally {
+                        memoryAvailable.release(memoryPermits);
+                        updateProgressBar(bucketsSaved.incrementAndGet());
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Sorts all suffixes in suffix array.
      */
@@ -327,7 +437,19 @@ public class BucketsSorter extends Tool {
 
     public static SuffixArray loadSuffixArrayBucket(GluedDnasString fullString, File bucketsDir,
                                                     int bucket, int bucketCharsNumber) throws IOException {
+        return loadSuffixArrayBucket(fullString, bucketsDir, bucket, bucketCharsNumber, false);
+    }
+
+    /**
+     * @param mapped if true, bucket is memory-mapped instead of being loaded to the heap
+     */
+    public static SuffixArray loadSuffixArrayBucket(GluedDnasString fullString, File bucketsDir,
+                                                    int bucket, int bucketCharsNumber,
+                                                    boolean mapped) throws IOException {
         File f = new File(bucketsDir, BucketsDivider.getBucketFileName(bucket, bucketCharsNumber));
+        if (mapped) {
+            return SuffixArray.map(fullString, f.toString());
+        }
         SuffixArray sa = new SuffixArray(fullString, f.toString());
         return sa;
     }
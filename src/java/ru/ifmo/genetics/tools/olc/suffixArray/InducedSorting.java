@@ -0,0 +1,208 @@
+package ru.ifmo.genetics.tools.olc.suffixArray;
+
+import java.util.Arrays;
+
+/**
+ * Linear time suffix array construction by induced sorting (SA-IS),
+ * see G. Nong, S. Zhang, W. H. Chan "Two efficient algorithms for linear time suffix array construction". <br>
+ *
+ * Text is terminated by a virtual sentinel which is smaller than any char.
+ * Reduced strings of the recursion are stored in the suffix array itself,
+ * but every recursion level allocates one bit per char for suffix types and two int arrays
+ * (bucket counts and bounds) of the size of its alphabet. Alphabet of a reduced string is the number of
+ * LMS-substring names, which is up to half of the parent string length, and arrays of all levels
+ * are alive during the deepest one. So for text of length n the extra memory is up to 2n bits
+ * plus 2n ints (about 8.25n bytes), not counting 2 * alphabet ints of the top level.
+ */
+public class InducedSorting {
+
+    private static abstract class Text {
+        abstract int get(int i);
+    }
+
+    private static class IntText extends Text {
+        private final int[] array;
+        private final int offset;
+
+        IntText(int[] array, int offset) {
+            this.array = array;
+            this.offset = offset;
+        }
+
+        @Override
+        int get(int i) {
+            return array[offset + i];
+        }
+    }
+
+
+    /**
+     * @param text chars in range [0, alphabet)
+     * @return suffix array of text with sentinel, its length is (text.length + 1) and its first element
+     *         is the sentinel position text.length
+     */
+    public static int[] buildSuffixArray(final byte[] text, int alphabet) {
+        final int len = text.length;
+        int[] sa = new int[len + 1];
+        sais(new Text() {
+            @Override
+            int get(int i) {
+                return (i < len) ? text[i] + 1 : 0;
+            }
+        }, sa, len + 1, alphabet + 1);
+        return sa;
+    }
+
+
+    /**
+     * Builds suffix array of s[0..n) to sa[0..n), s[n-1] should be the only minimal char.
+     */
+    private static void sais(Text s, int[] sa, int n, int alphabet) {
+        if (n == 1) {
+            sa[0] = 0;
+            return;
+        }
+
+        // classifying suffixes to S- and L-types
+        long[] sType = new long[(n >> 6) + 1];
+        set(sType, n - 1);
+        for (int i = n - 2; i >= 0; i--) {
+            int c = s.get(i);
+            int next = s.get(i + 1);
+            if (c < next || (c == next && get(sType, i + 1))) {
+                set(sType, i);
+            }
+        }
+
+        int[] counts = new int[alphabet];
+        for (int i = 0; i < n; i++) {
+            counts[s.get(i)]++;
+        }
+        int[] bkt = new int[alphabet];
+
+        // stage 1: sorting LMS-substrings
+        getBucketEnds(counts, bkt);
+        Arrays.fill(sa, 0, n, -1);
+        for (int i = 1; i < n; i++) {
+            if (isLMS(sType, i)) {
+                sa[--bkt[s.get(i)]] = i;
+            }
+        }
+        induceL(s, sa, n, sType, counts, bkt);
+        induceS(s, sa, n, sType, counts, bkt);
+
+        int n1 = 0;
+        for (int i = 0; i < n; i++) {
+            if (isLMS(sType, sa[i])) {
+                sa[n1++] = sa[i];
+            }
+        }
+
+        // naming LMS-substrings, equal substrings get equal names
+        Arrays.fill(sa, n1, n, -1);
+        int names = 0;
+        int prev = -1;
+        for (int i = 0; i < n1; i++) {
+            int pos = sa[i];
+            boolean diff = false;
+            for (int d = 0; d < n; d++) {
+                if (prev == -1 || s.get(pos + d) != s.get(prev + d) ||
+                        get(sType, pos + d) != get(sType, prev + d)) {
+                    diff = true;
+                    break;
+                }
+                if (d > 0 && (isLMS(sType, pos + d) || isLMS(sType, prev + d))) {
+                    break;
+                }
+            }
+            if (diff) {
+                names++;
+                prev = pos;
+            }
+            sa[n1 + pos / 2] = names - 1;
+        }
+        for (int i = n - 1, j = n - 1; i >= n1; i--) {
+            if (sa[i] >= 0) {
+                sa[j--] = sa[i];
+            }
+        }
+
+        // stage 2: sorting reduced string, recursively if names are not unique
+        Text s1 = new IntText(sa, n - n1);
+        if (names < n1) {
+            sais(s1, sa, n1, names);
+        } else {
+            for (int i = 0; i < n1; i++) {
+                sa[s1.get(i)] = i;
+            }
+        }
+
+        // stage 3: inducing suffix array from sorted LMS-suffixes
+        for (int i = 1, j = n - n1; i < n; i++) {
+            if (isLMS(sType, i)) {
+                sa[j++] = i;
+            }
+        }
+        for (int i = 0; i < n1; i++) {
+            sa[i] = sa[n - n1 + sa[i]];
+        }
+        Arrays.fill(sa, n1, n, -1);
+        getBucketEnds(counts, bkt);
+        for (int i = n1 - 1; i >= 0; i--) {
+            int j = sa[i];
+            sa[i] = -1;
+            sa[--bkt[s.get(j)]] = j;
+        }
+        induceL(s, sa, n, sType, counts, bkt);
+        induceS(s, sa, n, sType, counts, bkt);
+    }
+
+    private static void induceL(Text s, int[] sa, int n, long[] sType, int[] counts, int[] bkt) {
+        getBucketStarts(counts, bkt);
+        for (int i = 0; i < n; i++) {
+            int j = sa[i] - 1;
+            if (j >= 0 && !get(sType, j)) {
+                sa[bkt[s.get(j)]++] = j;
+            }
+        }
+    }
+
+    private static void induceS(Text s, int[] sa, int n, long[] sType, int[] counts, int[] bkt) {
+        getBucketEnds(counts, bkt);
+        for (int i = n - 1; i >= 0; i--) {
+            int j = sa[i] - 1;
+            if (j >= 0 && get(sType, j)) {
+                sa[--bkt[s.get(j)]] = j;
+            }
+        }
+    }
+
+    private static void getBucketStarts(int[] counts, int[] bkt) {
+        int sum = 0;
+        for (int c = 0; c < counts.length; c++) {
+            bkt[c] = sum;
+            sum += counts[c];
+        }
+    }
+
+    private static void getBucketEnds(int[] counts, int[] bkt) {
+        int sum = 0;
+        for (int c = 0; c < counts.length; c++) {
+            sum += counts[c];
+            bkt[c] = sum;
+        }
+    }
+
+
+    private static boolean isLMS(long[] sType, int i) {
+        return i > 0 && get(sType, i) && !get(sType, i - 1);
+    }
+
+    private static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+}
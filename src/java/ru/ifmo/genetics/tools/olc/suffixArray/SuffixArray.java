@@ -38,6 +38,19 @@ public class SuffixArray {
         length = array.length;
     }
     
+    private SuffixArray(GluedDnasString text, FiveByteArray array) {
+        this.text = text;
+        this.array = array;
+        length = array.length;
+    }
+
+    /**
+     * Maps array saved in high/low format to memory, returned array is read-only.
+     */
+    public static SuffixArray map(GluedDnasString text, String filename) throws IOException {
+        return new SuffixArray(text, FiveByteArray.map(filename));
+    }
+    
     public SuffixArray(GluedDnasString text, int length) {
         this.text = text;
         this.length = length;
@@ -0,0 +1,178 @@
+package ru.ifmo.genetics.tools.olc.suffixArray;
+
+import ru.ifmo.genetics.statistics.Timer;
+import ru.ifmo.genetics.tools.olc.arrays.FiveByteArrayWriter;
+import ru.ifmo.genetics.tools.olc.gluedDnasString.GluedDnasString;
+import ru.ifmo.genetics.utils.FileUtils;
+import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
+import ru.ifmo.genetics.utils.tool.Parameter;
+import ru.ifmo.genetics.utils.tool.Tool;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileParameterBuilder;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.IntParameterBuilder;
+import ru.ifmo.genetics.utils.tool.values.InMemoryValue;
+import ru.ifmo.genetics.utils.tool.values.InValue;
+import ru.ifmo.genetics.utils.tool.values.Yielder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static ru.ifmo.genetics.tools.olc.gluedDnasString.GluedDnasString.ALPHABET;
+import static ru.ifmo.genetics.utils.NumUtils.groupDigits;
+
+/**
+ * Builds the whole suffix array of full string in memory by induced sorting
+ * and writes it as sorted buckets, which can be used instead of ones made by {@link BucketsDivider}
+ * and {@link BucketsSorter}. Suffixes are ordered the same way, except that suffixes equal till '$'
+ * are ordered by the following chars. <br>
+ *
+ * Construction time is linear and doesn't depend on lengths of common prefixes of suffixes,
+ * but the full string should be shorter than Integer.MAX_VALUE and it takes about 5 bytes per char.
+ */
+public class SuffixArrayBuilder extends Tool {
+    public static final String NAME = "suffix-array-builder";
+    public static final String DESCRIPTION = "builds sorted suffix array buckets by induced sorting";
+
+
+    // input params
+    public final Parameter<File> fullStringFile = addParameter(new FileParameterBuilder("full-string-file")
+            .mandatory()
+            .withDescription("file with glued dnas string")
+            .create());
+
+    public final Parameter<File> sortedBucketsDir = addParameter(new FileParameterBuilder("sorted-buckets-dir")
+            .optional()
+            .withDefaultValue(workDir.append("sorted-buckets"))
+            .withDescription("directory with sorted buckets")
+            .create());
+
+
+    private Yielder<Integer> bucketCharsNumberYielder = new Yielder<Integer>() {
+        @Override
+        public Integer yield() {
+            if (fullString == null) {
+                return null;
+            }
+            return BucketsDivider.getAutoBucketCharsNumber(fullString.length);
+        }
+        @Override
+        public String description() {
+            return "auto";
+        }
+    };
+
+    public final Parameter<Integer> bucketCharsNumberIn = addParameter(new IntParameterBuilder("bucket-chars-number")
+            .optional()
+            .withDefaultValue(bucketCharsNumberYielder)
+            .withDescription("bucket chars number")
+            .create());
+
+
+    // internal variables
+    private int bucketCharsNumber;
+    private int bucketsNumber;
+    private GluedDnasString fullString;
+
+
+    // output params
+    private final InMemoryValue<Integer> bucketCharsNumberOutValue = new InMemoryValue<Integer>();
+    public final InValue<Integer> bucketCharsNumberOut = addOutput("bucket-chars-number", bucketCharsNumberOutValue, Integer.class);
+    private final InMemoryValue<Integer> bucketsNumberOutValue = new InMemoryValue<Integer>();
+    public final InValue<Integer> bucketsNumberOut = addOutput("buckets-number", bucketsNumberOutValue, Integer.class);
+
+
+
+    @Override
+    protected void runImpl() throws ExecutionFailedException {
+        try {
+            info("Loading full string...");
+            fullString = new GluedDnasString(fullStringFile.get());
+            debug("fullString.len = " + groupDigits(fullString.length));
+            if (fullString.length >= Integer.MAX_VALUE - 8) {
+                throw new ExecutionFailedException("Full string is too long for building suffix array in memory, " +
+                        "use " + BucketsDivider.NAME + " and " + BucketsSorter.NAME + " instead");
+            }
+
+            // null if it is fixed to auto value of not running divider
+            Integer charsNumber = bucketCharsNumberIn.get();
+            bucketCharsNumber = (charsNumber != null) ? charsNumber :
+                    BucketsDivider.getAutoBucketCharsNumber(fullString.length);
+            bucketsNumber = (int) Math.pow(ALPHABET, bucketCharsNumber);
+            info("bucket chars number = " + bucketCharsNumber + ", all buckets number = " + bucketsNumber);
+
+            byte[] text = new byte[(int) fullString.length];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = (byte) fullString.get(i);
+            }
+            fullString = null;
+
+            info("Building suffix array...");
+            Timer t = new Timer();
+            int[] sa = InducedSorting.buildSuffixArray(text, ALPHABET);
+            info("Done, it took " + t);
+
+            writeBuckets(text, sa);
+
+            bucketCharsNumberOutValue.set(bucketCharsNumber);
+            bucketsNumberOutValue.set(bucketsNumber);
+        } catch (IOException e) {
+            throw new ExecutionFailedException(e);
+        }
+    }
+
+    /**
+     * Writes suffix array divided into buckets to files bucketX.high/low in dir.
+     */
+    private void writeBuckets(byte[] text, int[] sa) throws IOException {
+        info("Writing buckets...");
+        Timer t = new Timer();
+
+        File dir = sortedBucketsDir.get();
+        FileUtils.createOrClearDir(dir);
+
+        int bucket = -1;
+        FiveByteArrayWriter writer = null;
+
+        createProgressBar(sa.length);
+        // sa[0] is the sentinel suffix, buckets go in suffix array order
+        for (int i = 1; i <= sa.length; i++) {
+            int bn = (i < sa.length) ? getBucketNumber(text, sa[i]) : bucketsNumber;
+            while (bucket < bn) {
+                if (writer != null) {
+                    writer.close();
+                }
+                bucket++;
+                writer = (bucket < bucketsNumber) ? new FiveByteArrayWriter(dir.toString() + File.separator +
+                        BucketsDivider.getBucketFileName(bucket, bucketCharsNumber)) : null;
+            }
+            if (writer != null) {
+                writer.write(sa[i]);
+            }
+            updateProgressBar(i);
+        }
+        destroyProgressBar();
+
+        info("Done, it took " + t);
+    }
+
+    /**
+     * The same as {@link BucketsDivider#getBucketNumber(GluedDnasString, long, int)}.
+     */
+    private int getBucketNumber(byte[] text, int pos) {
+        int res = 0;
+        for (int i = 0; i < bucketCharsNumber; i++) {
+            int v = (pos + i < text.length) ? text[pos + i] : 0;
+            res = res * ALPHABET + v;
+        }
+        return res;
+    }
+
+
+    @Override
+    protected void clean() throws ExecutionFailedException {
+        fullString = null;
+    }
+
+    public SuffixArrayBuilder() {
+        super(NAME, DESCRIPTION);
+    }
+}
@@ -1,6 +1,7 @@
 package ru.ifmo.genetics.tools.rf;
 
 import ru.ifmo.genetics.statistics.Timer;
+import ru.ifmo.genetics.structures.arrays.BigArrays;
 import ru.ifmo.genetics.structures.arrays.BigBytesArray;
 import ru.ifmo.genetics.structures.set.BigLongsHashSet;
 import ru.ifmo.genetics.structures.set.LongsHashSet;
@@ -96,7 +97,7 @@ public class ConnectedComponentsFinder {
 
         long n = edges.capacity();
         System.err.println(n);
-        marks = new BigBytesArray(n);
+        marks = BigArrays.newBytesArray(n);
         int componentsNumber = 0;
         long remained = edges.size();
         for (long i = 0; i < n; ++i) {
@@ -1,8 +1,8 @@
 package ru.ifmo.genetics.tools.rf;
 
 import ru.ifmo.genetics.statistics.Timer;
+import ru.ifmo.genetics.structures.arrays.BigArrays;
 import ru.ifmo.genetics.structures.debriujn.CompactDeBruijnGraph;
-import ru.ifmo.genetics.utils.Misc;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
 import ru.ifmo.genetics.utils.tool.Parameter;
 import ru.ifmo.genetics.utils.tool.Tool;
@@ -54,10 +54,7 @@ public class GraphBuilder extends Tool {
 
         info("Dumping...");
         try {
-            FileOutputStream fos = new FileOutputStream(graphFile.get());
-            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
-            graph.write(dos);
-            dos.close();
+            graph.writeSnapshot(graphFile.get());
         } catch (IOException e) {
             throw new ExecutionFailedException(e);
         }
@@ -75,7 +72,7 @@ public class GraphBuilder extends Tool {
 
         debug("have to read " + totalToRead + " k-mers");
 
-        long graphSizeBytes = Math.min(totalToRead * 12, (long)(Misc.availableMemory() * 0.85));
+        long graphSizeBytes = Math.min(totalToRead * 12, (long)(BigArrays.availableMemory() * 0.85));
         debug("graph size = " + graphSizeBytes + " bytes");
 
         graph = new CompactDeBruijnGraph(k, graphSizeBytes);
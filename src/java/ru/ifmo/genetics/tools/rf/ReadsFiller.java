@@ -5,6 +5,7 @@ import ru.ifmo.genetics.dna.LightDna;
 import ru.ifmo.genetics.dna.LightDnaQ;
 import ru.ifmo.genetics.io.DedicatedWriter;
 import ru.ifmo.genetics.io.PairedLibraryInfo;
+import ru.ifmo.genetics.io.SnapshotReader;
 import ru.ifmo.genetics.io.writers.ListDedicatedWriter;
 import ru.ifmo.genetics.io.sources.*;
 import ru.ifmo.genetics.io.sources.NamedSource;
@@ -114,11 +115,16 @@ public class ReadsFiller extends Tool {
 
         info("Loading graph...");
         try {
-            FileInputStream fis = new FileInputStream(graphFile.get());
-            DataInputStream dis = new DataInputStream(new BufferedInputStream(fis));
             graph = new CompactDeBruijnGraph();
-            graph.readFields(dis);
-            dis.close();
+            if (SnapshotReader.isSnapshot(graphFile.get())) {
+                graph.readSnapshot(graphFile.get());
+            } else {
+                // graph dumped in old format, by BuildAndDumpGraph for example
+                FileInputStream fis = new FileInputStream(graphFile.get());
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(fis));
+                graph.readFields(dis);
+                dis.close();
+            }
         } catch (IOException e) {
             throw new ExecutionFailedException(e);
         }
@@ -2,10 +2,17 @@ package ru.ifmo.genetics.tools.transcriptome;
 
 import org.apache.commons.lang.mutable.MutableLong;
 import ru.ifmo.genetics.statistics.Timer;
+import ru.ifmo.genetics.structures.LongArrayQueue;
 import ru.ifmo.genetics.structures.set.BigLongsHashSet;
 import ru.ifmo.genetics.structures.set.LongsHashSet;
 import ru.ifmo.genetics.transcriptome.CompactDeBruijnGraphWF;
-import ru.ifmo.genetics.utils.KmerUtils;
+import ru.ifmo.genetics.transcriptome.ComponentCollector;
+import ru.ifmo.genetics.transcriptome.ComponentSink;
+import ru.ifmo.genetics.transcriptome.ComponentStore;
+import ru.ifmo.genetics.transcriptome.ComponentsQueue;
+import ru.ifmo.genetics.transcriptome.GraphLoader;
+import ru.ifmo.genetics.transcriptome.LowComplexityFilter;
+import ru.ifmo.genetics.transcriptome.NucleotideCompositionFilter;
 import ru.ifmo.genetics.utils.Misc;
 import ru.ifmo.genetics.utils.iterators.IterableIterator;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
@@ -25,7 +32,7 @@ public class BigComponentsDivider extends Tool {
 
     public final Parameter<File> filePrefix = addParameter(new FileParameterBuilder("file-prefix")
             .mandatory()
-            .withDescription("prefix of files with edges")
+            .withDescription("directory of the component store")
             .create());
 
     public final Parameter<Integer> kParameter = addParameter(new IntParameterBuilder("k")
@@ -43,67 +50,142 @@ public class BigComponentsDivider extends Tool {
     //constants
 
     private final int COMPONENTS_MIN_SIZE = 150;
+    static final int BIG_COMPONENT_MIN_SIZE = 1 << 20;
+    static final float START_MIN_NEXT_FREQ = 0.3f;
 
     // internal vars
-    private int maxFreq;
+    private LowComplexityFilter lowComplexityFilter;
     private int k;
     private int minLenOfGen;
 
     int totalDeleted = 0;
-    private float minNextFreq = 0.3f;
+    private float minNextFreq = START_MIN_NEXT_FREQ;
 
     private int toDel;
 
+    // memory for big parts of a component waiting to be divided further
+    private long partsMemory;
+
+    private ComponentStore store;
+
     @Override
     protected void runImpl() throws ExecutionFailedException {
         info("Big components divider started");
 
-        k = kParameter.get();
-        maxFreq = k/2 + k/4;
-        minLenOfGen = k+1;
+        prepare();
         info("Min len of gen = " + minLenOfGen);
         Timer timer = new Timer();
 
         info("Dividing components...");
 
-        int prevToDel = -1;
-        int cycle = 0;
-        while(prevToDel != totalDeleted){
-            cycle++;
-            info(cycle + " cycle");
-            prevToDel = totalDeleted;
-            for (File in: filePrefix.get().listFiles()){
-                try {
-                     divideComponent(buildGraph(in), in);
-                } catch (IOException e) {
-                     e.printStackTrace();
-                }
+        try {
+            store = ComponentStore.open(filePrefix.get());
+        } catch (IOException e) {
+            throw new ExecutionFailedException(e);
+        }
+
+        // small components are skipped by their size in the index, without reading them
+        for (int id : store.components()){
+            if (store.edgesNumber(id) < BIG_COMPONENT_MIN_SIZE) {
+                continue;
+            }
+            try {
+                 divideComponent(id);
+            } catch (IOException e) {
+                 e.printStackTrace();
             }
-            minNextFreq += 0.1;
+        }
+        info(totalDeleted + " big components were divided");
+
+        try {
+            store.close();
+        } catch (IOException e) {
+            throw new ExecutionFailedException(e);
         }
 
         info("Dividing big components done, it took " + timer);
 
     }
 
-    private void divideComponent(CompactDeBruijnGraphWF graph, File in) throws IOException {
-        if (graph==null ){
-            return;
+    void prepare() {
+        k = kParameter.get();
+        lowComplexityFilter = new NucleotideCompositionFilter(k);
+        minLenOfGen = k+1;
+        partsMemory = Misc.availableMemory() / 10;
+    }
+
+    /**
+     * Divides component from the store, its graph is built from the memory-mapped store only once.
+     * Small parts are appended to the store, big ones are divided further right away.
+     */
+    private void divideComponent(int id) throws IOException {
+        CompactDeBruijnGraphWF graph = buildGraph(id);
+        ComponentsQueue bigParts = divideGraph(graph, START_MIN_NEXT_FREQ, 0, store);
+        graph = null;
+        store.delete(id);
+        divideParts(bigParts, START_MIN_NEXT_FREQ + 0.1f, 1, store);
+    }
+
+    /**
+     * Divides big component kept in memory, should be called after {@link #prepare()}. <br>
+     * Parts smaller than BIG_COMPONENT_MIN_SIZE are passed to out, bigger ones are divided further
+     * with increased frequency threshold.
+     */
+    void divide(long[] edges, int[] freqs, int n, float minNextFreq, ComponentSink out) throws IOException {
+        divide(edges, freqs, n, minNextFreq, 0, out);
+    }
+
+    private void divide(long[] edges, int[] freqs, int n, float minNextFreq, int level, ComponentSink out)
+            throws IOException {
+        // graph of component kept in memory is sized by n only, so that available memory isn't checked every time
+        CompactDeBruijnGraphWF graph = new CompactDeBruijnGraphWF(k, n * 24L);
+        checkKmerMask(GraphLoader.load(graph, edges, freqs, n));
+        ComponentsQueue bigParts = divideGraph(graph, minNextFreq, level, out);
+        graph = null;
+        divideParts(bigParts, minNextFreq + 0.1f, level + 1, out);
+    }
+
+    private void divideParts(ComponentsQueue bigParts, float minNextFreq, int level, ComponentSink out)
+            throws IOException {
+        try {
+            ComponentsQueue.Component c;
+            while ((c = bigParts.take()) != null) {
+                divide(c.edges, c.freqs, c.n, minNextFreq, level, out);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            bigParts.dispose();
         }
-        BigLongsHashSet wasEdges = new BigLongsHashSet(graph.getMemSize());
-        makeSimple(graph,wasEdges);
-        in.delete();
+    }
+
+    /**
+     * @return closed queue with parts which are still big, other parts are passed to out.
+     * Big parts which don't fit in memory are spilled to the working directory.
+     */
+    private ComponentsQueue divideGraph(CompactDeBruijnGraphWF graph, float minNextFreq, int level,
+                                        ComponentSink out) {
+        ComponentsQueue bigParts = new ComponentsQueue(partsMemory / ComponentStore.RECORD_SIZE,
+                new File(workDir.get(), "big-parts-" + level));
+
+        this.minNextFreq = minNextFreq;
+        makeSimple(graph, new BigLongsHashSet(graph.getMemSize()),
+                ComponentCollector.splitter(out, bigParts, BIG_COMPONENT_MIN_SIZE));
+        bigParts.close();
         totalDeleted++;
+        return bigParts;
     }
 
     private boolean checkFrom(CompactDeBruijnGraphWF graph, BigLongsHashSet wasEdges, long curV, int dep){
         if (dep > minLenOfGen){
             return true;
         }
-        if ((graph.incomeEdges(curV).length!=1) || (graph.outcomeEdges(curV).length!=1)){
+        int adjacencyMask = graph.adjacencyMask(curV);
+        if ((CompactDeBruijnGraphWF.incomeDegree(adjacencyMask) != 1) ||
+                (CompactDeBruijnGraphWF.outcomeDegree(adjacencyMask) != 1)){
             return false;
         }
-        long curE = graph.outcomeEdges(curV)[0];
+        long curE = graph.outcomeEdge(curV, Integer.numberOfTrailingZeros(adjacencyMask & 0xf));
         if(checkFrom(graph, wasEdges, curE & graph.vertexMask, dep + 1)){
             return true;
         }
@@ -114,7 +196,7 @@ public class BigComponentsDivider extends Tool {
         }
     }
 
-    private void makeSimple(CompactDeBruijnGraphWF graph, BigLongsHashSet wasEdges){
+    private void makeSimple(CompactDeBruijnGraphWF graph, BigLongsHashSet wasEdges, ComponentSink out){
         Iterator<MutableLong> iter = graph.getIterator();
         List<Long> starts = new ArrayList<Long>();
         int totalSize = 0;
@@ -133,12 +215,12 @@ public class BigComponentsDivider extends Tool {
                     continue;
                 }
 
-                if ((graph.incomeEdges(graph.reverseComplementEdge(curE)>>>2).length == 0)){
+                if (CompactDeBruijnGraphWF.incomeDegree(graph.adjacencyMask(graph.reverseComplementEdge(curE)>>>2)) == 0){
                     curV = graph.reverseComplementEdge(curE)>>2;
                     nextV = graph.reverseComplementEdge(curE) & graph.vertexMask;
                 }
 
-                if (graph.incomeEdges(curV).length == 0){
+                if (CompactDeBruijnGraphWF.incomeDegree(graph.adjacencyMask(curV)) == 0){
                     if (checkFrom(graph, wasEdges, nextV, 0)){
                         starts.add(curV);
                     }
@@ -157,7 +239,7 @@ public class BigComponentsDivider extends Tool {
             if (!wasEdges.contains(Math.min(curE,graph.reverseComplementEdge(curE)))){
                 numOfComponents++;
                 try {
-                    bfs(curE&graph.vertexMask,graph,wasEdges,filePrefix.get().getAbsolutePath()+"/b"+ totalDeleted + "b"+numOfComponents);
+                    bfs(curE&graph.vertexMask,graph,wasEdges,out);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -166,113 +248,74 @@ public class BigComponentsDivider extends Tool {
         info("I divide big component to " + numOfComponents + " components");
     }
 
-    private boolean checkKmerForSame(long kmer){
-        int []fr = new int[4];
-        String dna = KmerUtils.kmer2String(kmer,k);
-        for (int i = 0; i < k; i++){
-            switch(dna.charAt(i)){
-                case 'A':
-                    fr[0]++;
-                    break;
-                case 'C':
-                    fr[1]++;
-                    break;
-                case 'G':
-                    fr[2]++;
-                    break;
-                case 'T':
-                    fr[3]++;
-                    break;
-            }
-            for (int j = 0; j < fr.length; j++){
-                if (fr[j] > maxFreq){
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
 
-    private boolean bfs(long start, CompactDeBruijnGraphWF graph, BigLongsHashSet wasEdges, String fnout) throws IOException {
-        DataOutputStream outEdges = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fnout)));
-        Queue<Long> queue = new LinkedList<Long>();
+    private boolean bfs(long start, CompactDeBruijnGraphWF graph, BigLongsHashSet wasEdges, ComponentSink out) throws IOException {
+        ComponentCollector component = new ComponentCollector(out, COMPONENTS_MIN_SIZE);
+        LongArrayQueue queue = new LongArrayQueue();
         queue.add(start);
-        int size = 0;
         while(!queue.isEmpty()){
             long cur = queue.poll();
-            if ((graph.outcomeEdges(cur).length == 4) || (graph.incomeEdges(cur).length == 4) || (graph.outcomeEdges(cur).length + graph.incomeEdges(cur).length > 5) ||checkKmerForSame(cur)){
-                for (long outcome : graph.outcomeEdges(cur)){
+            int adjacencyMask = graph.adjacencyMask(cur);
+            int outDegree = CompactDeBruijnGraphWF.outcomeDegree(adjacencyMask);
+            int inDegree = CompactDeBruijnGraphWF.incomeDegree(adjacencyMask);
+            if ((outDegree == 4) || (inDegree == 4) || (outDegree + inDegree > 5) ||lowComplexityFilter.isLowComplexity(cur)){
+                for (int m = adjacencyMask & 0xf; m != 0; m &= m - 1) {
+                    long outcome = graph.outcomeEdge(cur, Integer.numberOfTrailingZeros(m));
                     wasEdges.put(Math.min(outcome,graph.reverseComplementEdge(outcome)));
                 }
-                for (long income : graph.incomeEdges(cur)){
+                for (int m = adjacencyMask >>> 4; m != 0; m &= m - 1) {
+                    long income = graph.incomeEdge(cur, Integer.numberOfTrailingZeros(m));
                     wasEdges.put(Math.min(income,graph.reverseComplementEdge(income)));
                 }
                 continue;
             }
 
-            for (long outcome : graph.outcomeEdges(cur)){
-                if (!wasEdges.contains(Math.min(outcome,graph.reverseComplementEdge(outcome)))){
+            for (int m = adjacencyMask & 0xf; m != 0; m &= m - 1) {
+                long outcome = graph.outcomeEdge(cur, Integer.numberOfTrailingZeros(m));
+                long canonical = Math.min(outcome, graph.reverseComplementEdge(outcome));
+                if (!wasEdges.contains(canonical)){
                     long outV = outcome&graph.vertexMask;
                     queue.add(outV);
-                    wasEdges.put(Math.min(outcome,graph.reverseComplementEdge(outcome)));
-                    outEdges.writeLong(Math.min(outcome, graph.reverseComplementEdge(outcome)));
-                    outEdges.writeInt(graph.getFreg(outcome));
-                    size++;
+                    wasEdges.put(canonical);
+                    component.add(canonical, graph.getFreg(outcome));
                 }
             }
-            for (long income : graph.incomeEdges(cur)){
-                if (!wasEdges.contains(Math.min(income,graph.reverseComplementEdge(income)))){
+            for (int m = adjacencyMask >>> 4; m != 0; m &= m - 1) {
+                long income = graph.incomeEdge(cur, Integer.numberOfTrailingZeros(m));
+                long canonical = Math.min(income, graph.reverseComplementEdge(income));
+                if (!wasEdges.contains(canonical)){
                     long outV = (income>>2)&graph.vertexMask;
                     queue.add(outV);
-                    wasEdges.put(Math.min(income,graph.reverseComplementEdge(income)));
-                    outEdges.writeLong(Math.min(income, graph.reverseComplementEdge(income)));
-                    outEdges.writeInt(graph.getFreg(income));
-                    size++;
+                    wasEdges.put(canonical);
+                    component.add(canonical, graph.getFreg(income));
                 }
             }
         }
-        outEdges.close();
-        if ((size >= 0) && (size < COMPONENTS_MIN_SIZE)){
-            (new File(fnout)).delete();
-            return false;
-        }
-        return true;
+        return component.finish();
     }
 
-    private CompactDeBruijnGraphWF buildGraph(File kmersFile) throws IOException {
-        CompactDeBruijnGraphWF graph;
-
-        FileInputStream fileIn = new FileInputStream(kmersFile);
-        long toRead = fileIn.getChannel().size() / 12;
+    private CompactDeBruijnGraphWF buildGraph(int id) throws IOException {
+        CompactDeBruijnGraphWF graph = newGraph(store.edgesNumber(id));
 
-        fileIn.close();
-
-        if (toRead < (1L<<20)){ //small component
-            return null;
+        long kmerMask;
+        try {
+            kmerMask = GraphLoader.load(graph, store, id, availableProcessors.get());
+        } catch (InterruptedException e) {
+            throw new IOException(e);
         }
 
-        long graphSizeBytes = Math.min(toRead * 24, (long)(Misc.availableMemory() * 0.85));      //check mem
-
-        graph = new CompactDeBruijnGraphWF(k, graphSizeBytes);
-
-
-        Timer timer = new Timer();
-        timer.start();
-        long kmerMask = 0;
-
-        fileIn = new FileInputStream(kmersFile);
-        DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn));
+        info("Graph was builded");
+        checkKmerMask(kmerMask);
 
-        for (long i = 0; i < toRead; ++i) {
-            long kmer = in.readLong();
-            int freq = in.readInt();
-            kmerMask |= kmer;
-            graph.addEdge(kmer,freq);
-        }
-        fileIn.close();
+        return graph;
+    }
 
-        info("Graph was builded");
+    private CompactDeBruijnGraphWF newGraph(long toRead) {
+        long graphSizeBytes = Math.min(toRead * 24, (long)(Misc.availableMemory() * 0.85));      //check mem
+        return new CompactDeBruijnGraphWF(k, graphSizeBytes);
+    }
 
+    private void checkKmerMask(long kmerMask) {
         if (kmerMask != ((1L << (2 * k + 2)) - 1)) {
             warn("k-mer size mismatch");
             warn("set: " + k);
@@ -284,13 +327,11 @@ public class BigComponentsDivider extends Tool {
                 }
             }
         }
-
-        return graph;
     }
 
     @Override
     protected void clean() throws ExecutionFailedException {
-
+        store = null;
     }
 
     public BigComponentsDivider() {
@@ -308,12 +349,15 @@ public class BigComponentsDivider extends Tool {
 
     private int getFreqImpl(long v, CompactDeBruijnGraphWF graph, LongsHashSet wasEdges){ //think about was (if)
         int res = 0;
-        for (long outcome : graph.outcomeEdges(v)){
+        int adjacencyMask = graph.adjacencyMask(v);
+        for (int m = adjacencyMask & 0xf; m != 0; m &= m - 1) {
+            long outcome = graph.outcomeEdge(v, Integer.numberOfTrailingZeros(m));
             if (!wasEdges.contains(Math.min(outcome,graph.reverseComplementEdge(outcome)))){
                 res+=graph.getFreg(outcome);
             }
         }
-        for (long income : graph.incomeEdges(v)){
+        for (int m = adjacencyMask >>> 4; m != 0; m &= m - 1) {
+            long income = graph.incomeEdge(v, Integer.numberOfTrailingZeros(m));
             if (!wasEdges.contains(Math.min(income,graph.reverseComplementEdge(income)))){
                 res+=graph.getFreg(income);
             }
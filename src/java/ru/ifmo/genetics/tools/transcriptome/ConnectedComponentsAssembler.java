@@ -1,13 +1,16 @@
 package ru.ifmo.genetics.tools.transcriptome;
 
-import org.apache.commons.lang.mutable.MutableLong;
 import ru.ifmo.genetics.statistics.Timer;
-import ru.ifmo.genetics.structures.set.BigLongsHashSet;
-import ru.ifmo.genetics.structures.set.LongsHashSet;
+import ru.ifmo.genetics.structures.LongArrayQueue;
 import ru.ifmo.genetics.transcriptome.CompactDeBruijnGraphWF;
-import ru.ifmo.genetics.utils.KmerUtils;
+import ru.ifmo.genetics.transcriptome.LowComplexityFilter;
+import ru.ifmo.genetics.transcriptome.NucleotideCompositionFilter;
+import ru.ifmo.genetics.transcriptome.ComponentCollector;
+import ru.ifmo.genetics.transcriptome.ComponentSink;
+import ru.ifmo.genetics.transcriptome.ComponentStore;
+import ru.ifmo.genetics.transcriptome.ComponentsLabeler;
+import ru.ifmo.genetics.transcriptome.GraphLoader;
 import ru.ifmo.genetics.utils.Misc;
-import ru.ifmo.genetics.utils.iterators.IterableIterator;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
 import ru.ifmo.genetics.utils.tool.Parameter;
 import ru.ifmo.genetics.utils.tool.Tool;
@@ -15,7 +18,7 @@ import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.IntParameterBuilder;
 
 import java.io.*;
-import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConnectedComponentsAssembler extends Tool {
     public static final String NAME = "connected-components";
@@ -35,7 +38,7 @@ public class ConnectedComponentsAssembler extends Tool {
 
     public final Parameter<File> outFilePrefix = addParameter(new FileParameterBuilder("file-prefix")
             .withShortOpt("po")
-            .withDescription("output prefix")
+            .withDescription("output directory for the component store")
             .withDefaultValue(workDir.append("/components"))
             .create());
 
@@ -45,170 +48,160 @@ public class ConnectedComponentsAssembler extends Tool {
 
     // internal vars
     private int k;
-    private int maxFreq;
+    private LowComplexityFilter lowComplexityFilter;
     private CompactDeBruijnGraphWF graph;
     private long graphSizeBytes;
-    private LongsHashSet wasEdges;
+    private ComponentsLabeler labeler;
+    private ComponentStore store;
+    private ComponentSink sink;
+    private long memoryLimit = 0;
+    private final AtomicInteger numOfComponents = new AtomicInteger();
+
+    /**
+     * Components will be passed to sink instead of writing them to the store in {@link #outFilePrefix}.
+     */
+    public void setSink(ComponentSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Graph will be sized to fit in memoryLimit bytes instead of all available memory, 0 removes the limit.
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
 
     @Override
     protected void runImpl() throws ExecutionFailedException {
 
         k = kParameter.get();
-        maxFreq = k/2 + k/4;
+        lowComplexityFilter = new NucleotideCompositionFilter(k);
         Timer timer = new Timer();
         info("Building graph...");
         try {
             buildGraph();
         } catch (IOException e) {
             throw new ExecutionFailedException(e);
+        } catch (InterruptedException e) {
+            throw new ExecutionFailedException(e);
         }
         info("Building graph done, it took " + timer);
         timer.start();
-        wasEdges = new BigLongsHashSet(graphSizeBytes);
-        wasEdges.put(0L);
-
-        int numOfComponents = 0;
-
-        outFilePrefix.get().mkdir();
-
-        Iterator<MutableLong> iter = graph.getIterator();
-        for (MutableLong value: new IterableIterator<MutableLong>(iter)) {
-            long curE = value.longValue();
-            if (!wasEdges.contains(Math.min(curE,graph.reverseComplementEdge(curE)))){
-                numOfComponents++;
-                try {
-                    bfs(curE&graph.vertexMask,outFilePrefix.get().getAbsolutePath()+"/"+numOfComponents);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                if (numOfComponents%10000 == 0){
-                    info("I found " + numOfComponents + " components");
-                }
+
+        numOfComponents.set(0);
+        final ComponentSink out;
+        if (sink == null) {
+            try {
+                store = ComponentStore.create(outFilePrefix.get());
+            } catch (IOException e) {
+                throw new ExecutionFailedException(e);
             }
+            out = store;
+        } else {
+            out = sink;
         }
-        info("Done, it took " + timer);
-
-    }
 
-    private boolean checkKmerForSame(long kmer){
-        int []fr = new int[4];
-        String dna = KmerUtils.kmer2String(kmer,k);
-        for (int i = 0; i < k; i++){
-            switch(dna.charAt(i)){
-                case 'A':
-                    fr[0]++;
-                    break;
-                case 'C':
-                    fr[1]++;
-                    break;
-                case 'G':
-                    fr[2]++;
-                    break;
-                case 'T':
-                    fr[3]++;
-                    break;
+        labeler = new ComponentsLabeler(graph, availableProcessors.get()) {
+            @Override
+            public boolean isStopVertex(long v, int adjacencyMask) {
+                int out = CompactDeBruijnGraphWF.outcomeDegree(adjacencyMask);
+                int in = CompactDeBruijnGraphWF.incomeDegree(adjacencyMask);
+                return (out == 4) || (in == 4) || (out + in > 5) || lowComplexityFilter.isLowComplexity(v);
             }
-            for (int j = 0; j < fr.length; j++){
-                if (fr[j] > maxFreq){
-                    return true;
+        };
+        try {
+            labeler.label();
+            info("Labeling components done, it took " + timer);
+
+            labeler.forEachComponent(new ComponentsLabeler.ComponentVisitor() {
+                @Override
+                public void visit(long root) {
+                    try {
+                        if (bfs(root, out)) {
+                            int n = numOfComponents.incrementAndGet();
+                            if (n % 10000 == 0) {
+                                info("I found " + n + " components");
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
+            });
+            if (store != null) {
+                store.close();
             }
+        } catch (InterruptedException e) {
+            throw new ExecutionFailedException(e);
+        } catch (IOException e) {
+            throw new ExecutionFailedException(e);
         }
-        return false;
+        info("Found " + numOfComponents.get() + " components");
+        info("Done, it took " + timer);
+
     }
 
-    private boolean bfs(long start, String fnout) throws IOException {
-        DataOutputStream outEdges = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fnout)));
-        Queue<Long> queue = new LinkedList<Long>();
-        queue.add(start);
-        int size = 0;
+
+    /**
+     * Collects edges of the component labeled with root. Components smaller than COMPONENTS_MIN_SIZE
+     * are kept in memory only and are never passed to out.
+     */
+    private boolean bfs(long root, ComponentSink out) throws IOException {
+        ComponentCollector component = new ComponentCollector(out, COMPONENTS_MIN_SIZE);
+
+        LongArrayQueue queue = new LongArrayQueue();
+        labeler.take(root, root);
+        long rootEdge = graph.edgeAt(root);
+        component.add(rootEdge, graph.getFreg(rootEdge));
+        if (!labeler.isStopVertex(rootEdge >>> 2)) {
+            queue.add(rootEdge >>> 2);
+        }
+        if (!labeler.isStopVertex(rootEdge & graph.vertexMask)) {
+            queue.add(rootEdge & graph.vertexMask);
+        }
+
         while(!queue.isEmpty()){
             long cur = queue.poll();
-            if ((graph.outcomeEdges(cur).length == 4) || (graph.incomeEdges(cur).length == 4) || (graph.outcomeEdges(cur).length + graph.incomeEdges(cur).length > 5) ||checkKmerForSame(cur)){
-                for (long outcome : graph.outcomeEdges(cur)){
-                    wasEdges.put(Math.min(outcome,graph.reverseComplementEdge(outcome)));
-                }
-                for (long income : graph.incomeEdges(cur)){
-                    wasEdges.put(Math.min(income,graph.reverseComplementEdge(income)));
-                }
-                continue;
-            }
-
-            for (long outcome : graph.outcomeEdges(cur)){
-                if (!wasEdges.contains(Math.min(outcome,graph.reverseComplementEdge(outcome)))){
+            int adjacencyMask = graph.adjacencyMask(cur);
+            for (int m = adjacencyMask & 0xf; m != 0; m &= m - 1) {
+                long outcome = graph.outcomeEdge(cur, Integer.numberOfTrailingZeros(m));
+                if (labeler.take(graph.getEdgePosition(outcome), root)){
                     long outV = outcome&graph.vertexMask;
-                    outEdges.writeLong(Math.min(outcome, graph.reverseComplementEdge(outcome)));
-                    outEdges.writeInt(graph.getFreg(outcome));
-                    queue.add(outV);
-                    wasEdges.put(Math.min(outcome,graph.reverseComplementEdge(outcome)));
-                    size++;
+                    if (!labeler.isStopVertex(outV)) {
+                        queue.add(outV);
+                    }
+                    component.add(Math.min(outcome, graph.reverseComplementEdge(outcome)), graph.getFreg(outcome));
                 }
             }
-            for (long income : graph.incomeEdges(cur)){
-                if (!wasEdges.contains(Math.min(income,graph.reverseComplementEdge(income)))){
+            for (int m = adjacencyMask >>> 4; m != 0; m &= m - 1) {
+                long income = graph.incomeEdge(cur, Integer.numberOfTrailingZeros(m));
+                if (labeler.take(graph.getEdgePosition(income), root)){
                     long outV = (income>>2)&graph.vertexMask;
-                    outEdges.writeLong(Math.min(income, graph.reverseComplementEdge(income)));
-                    outEdges.writeInt(graph.getFreg(income));
-                    queue.add(outV);
-                    wasEdges.put(Math.min(income,graph.reverseComplementEdge(income)));
-                    size++;
+                    if (!labeler.isStopVertex(outV)) {
+                        queue.add(outV);
+                    }
+                    component.add(Math.min(income, graph.reverseComplementEdge(income)), graph.getFreg(income));
                 }
             }
         }
-        outEdges.close();
-        if ((size >= 0) && (size < COMPONENTS_MIN_SIZE)){
-            (new File(fnout)).delete();
-            return false;
-        }
-        return true;
+        // components of exactly COMPONENTS_MIN_SIZE edges are written too
+        return component.finish();
     }
 
-    private void buildGraph() throws IOException {
-        long totalToRead = 0;
-        for (File kmersFile : kmersFileFolder.get().listFiles()) {
-            FileInputStream fileIn = new FileInputStream(kmersFile);
-            long toRead = fileIn.getChannel().size() / 12;
-            totalToRead += toRead;
-            fileIn.close();
-        }
+    private void buildGraph() throws IOException, InterruptedException {
+        File[] kmersFiles = kmersFileFolder.get().listFiles();
+        long totalToRead = GraphLoader.recordsNumber(kmersFiles);
 
         debug("have to read " + totalToRead + " k-mers");
 
-        graphSizeBytes = Math.min(totalToRead * 24, (long)(Misc.availableMemory() * 0.85));
+        long memory = (memoryLimit > 0) ? memoryLimit : Misc.availableMemory();
+        graphSizeBytes = Math.min(totalToRead * 24, (long)(memory * 0.85));
         debug("graph size = " + graphSizeBytes + " bytes");
 
         graph = new CompactDeBruijnGraphWF(k, graphSizeBytes);
 
-        long xx = 0;
-        Timer timer = new Timer();
-        timer.start();
-        long kmerMask = 0;
-        for (File kmersFile : kmersFileFolder.get().listFiles()) {
-            FileInputStream fileIn = new FileInputStream(kmersFile);
-            DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn));
-            long toRead = fileIn.getChannel().size() / 12;
-            xx += toRead;
-            for (long i = 0; i < toRead; ++i) {
-                long kmer = in.readLong();
-                int freq = in.readInt();
-                kmerMask |= kmer;
-                graph.addEdge(kmer,freq);
-                if (i % 1000000 == 0) {
-                    System.err.println(i + " k-mers read");
-                }
-            }
-            fileIn.close();
-            debug(xx + " out of " + totalToRead + " k-mers loaded");
-
-            double done = ((double) xx) / totalToRead;
-            double total = timer.finish() / done / 1000;
-            double remained = total * (1 - done);
-            double elapsed = total * done;
+        long kmerMask = GraphLoader.load(graph, kmersFiles, availableProcessors.get());
 
-            showProgressOnly(100 * done + "% done");
-            debug("estimated  total time: " + total + ", remaining: " + remained + ", elapsed: "
-                    + elapsed);
-        }
         if (kmerMask != ((1L << (2 * k + 2)) - 1)) {
             warn("k-mer size mismatch");
             warn("set: " + k);
@@ -226,7 +219,8 @@ public class ConnectedComponentsAssembler extends Tool {
     @Override
     protected void clean() throws ExecutionFailedException {
         graph = null;
-
+        labeler = null;
+        store = null;
     }
 
     public ConnectedComponentsAssembler() {
@@ -1,11 +1,22 @@
 package ru.ifmo.genetics.tools.transcriptome;
 
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.apache.commons.lang.mutable.MutableLong;
+import ru.ifmo.genetics.dna.DnaTools;
+import ru.ifmo.genetics.dna.NucBuffer;
+import ru.ifmo.genetics.executors.PatientExecutorService;
 import ru.ifmo.genetics.statistics.Timer;
 import ru.ifmo.genetics.structures.set.BigLongsHashSet;
 import ru.ifmo.genetics.structures.set.LongsHashSet;
 import ru.ifmo.genetics.transcriptome.CompactDeBruijnGraphWF;
-import ru.ifmo.genetics.utils.KmerUtils;
+import ru.ifmo.genetics.transcriptome.ComponentStore;
+import ru.ifmo.genetics.transcriptome.GraphLoader;
 import ru.ifmo.genetics.utils.Misc;
 import ru.ifmo.genetics.utils.iterators.IterableIterator;
 import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
@@ -16,6 +27,7 @@ import ru.ifmo.genetics.utils.tool.inputParameterBuilder.IntParameterBuilder;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SmallComponentsAssembler extends Tool {
     public static final String NAME = "small-components-assembler";
@@ -25,7 +37,7 @@ public class SmallComponentsAssembler extends Tool {
 
     public final Parameter<File> filePrefix = addParameter(new FileParameterBuilder("file-prefix")
             .mandatory()
-            .withDescription("prefix of files with edges")
+            .withDescription("directory of the component store")
             .create());
 
     public final Parameter<Integer> kParameter = addParameter(new IntParameterBuilder("k")
@@ -40,69 +52,95 @@ public class SmallComponentsAssembler extends Tool {
     // internal vars
     private int k;
     private int minLenOfGen;
+    private File outDir;
 
-    volatile Integer total = 0;
+    private final AtomicInteger total = new AtomicInteger();
 
-    int totalTranscripts = 0;
+    private final AtomicInteger totalTranscripts = new AtomicInteger();
 
     @Override
     protected void runImpl() throws ExecutionFailedException {
 
-        k = kParameter.get();
-        minLenOfGen = (k+1);
+        prepare();
         info("Min len of gen = " + minLenOfGen);
         Timer timer = new Timer();
 
         info("Assembling transcripts...");
-        final File outDir = new File(workDir.get().getAbsolutePath() + "/transcripts");
-        outDir.mkdir();
-
-        File [] allComponentFiles = filePrefix.get().listFiles();
-
-        int totalThreads = availableProcessors.get();
-
-        int bagLength = allComponentFiles.length / totalThreads;
-
-        Thread []allThreads = new Thread[totalThreads];
 
-        for (int threadNum = 0; threadNum < totalThreads; threadNum++){
-            int startIndex = threadNum * bagLength;
-            int endIndex = startIndex + bagLength;
-            if (threadNum == totalThreads - 1){
-                endIndex = allComponentFiles.length;
+        final ComponentStore store;
+        try {
+            store = ComponentStore.open(filePrefix.get());
+        } catch (IOException e) {
+            throw new ExecutionFailedException(e);
+        }
+        final int[] components = store.components();
+
+        // the largest components first, so that no thread gets a huge one at the very end
+        final long[] sizes = new long[components.length];
+        int[] order = new int[components.length];
+        for (int i = 0; i < components.length; i++) {
+            sizes[i] = store.edgesNumber(components[i]);
+            order[i] = i;
+        }
+        IntArrays.quickSort(order, new AbstractIntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return (sizes[a] > sizes[b]) ? -1 : ((sizes[a] < sizes[b]) ? 1 : 0);
             }
-            final File []componentFilesBag = Arrays.copyOfRange(allComponentFiles,startIndex,endIndex);
-            allThreads[threadNum] = new Thread(){
-                public void run(){
-                    for (File in: componentFilesBag){
-                        try {
-                            assebleTranscripts(buildGraph(in),new File(outDir.getAbsolutePath()+ "/"+in.getName()));
-                            synchronized (total){
-                                total++;
-                                if (total%1000 == 0){
-                                    info(total + " components analyzed");
-                                }
-                            }
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
+        });
+
+        // threads take components from the common queue, so work is balanced dynamically
+        PatientExecutorService executor = new PatientExecutorService(availableProcessors.get());
+        for (int i : order) {
+            final int id = components[i];
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        assebleTranscripts(buildGraph(store, id), new File(outDir.getAbsolutePath() + "/" + id));
+                        componentAnalyzed();
+                    } catch (IOException e) {
+                        e.printStackTrace();
                     }
                 }
-            };
-            allThreads[threadNum].start();
-            info("Thread started " + threadNum);
-
+            });
         }
-        for (int threadNum = 0; threadNum < totalThreads; threadNum++){
-            try {
-                allThreads[threadNum].join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        try {
+            executor.waitForShutdown();
+            store.close();
+        } catch (InterruptedException e) {
+            throw new ExecutionFailedException(e);
+        } catch (IOException e) {
+            throw new ExecutionFailedException(e);
         }
         info("Assembling transcripts done, it took " + timer);
     }
 
+    void prepare() {
+        k = kParameter.get();
+        minLenOfGen = (k+1);
+        outDir = new File(workDir.get().getAbsolutePath() + "/transcripts");
+        outDir.mkdirs();
+    }
+
+    /**
+     * Assembles transcripts of component kept in memory, should be called after {@link #prepare()}.
+     * Can be called concurrently, graph is sized by n only, so that available memory isn't checked every time.
+     */
+    void assemble(long[] edges, int[] freqs, int n, String name) throws IOException {
+        CompactDeBruijnGraphWF graph = new CompactDeBruijnGraphWF(k, n * 24L);
+        checkKmerMask(GraphLoader.load(graph, edges, freqs, n));
+        assebleTranscripts(graph, new File(outDir.getAbsolutePath() + "/" + name));
+        componentAnalyzed();
+    }
+
+    private void componentAnalyzed() {
+        int analyzed = total.incrementAndGet();
+        if (analyzed % 1000 == 0) {
+            info(analyzed + " components analyzed");
+        }
+    }
+
     private void assebleTranscripts(CompactDeBruijnGraphWF graph, File out) throws IOException {
         if (graph==null ){
             return;
@@ -118,38 +156,47 @@ public class SmallComponentsAssembler extends Tool {
     }
 
 
-    private boolean dfs(long start, PrintWriter out, CompactDeBruijnGraphWF graph,LongsHashSet wasEdges,Set<Long> wasStrats){
-        Stack<Long> dfsStack = new Stack<Long>();
-        Stack<Integer> dfsStringLen = new Stack<Integer>();
+    private boolean dfs(long start, PrintWriter out, CompactDeBruijnGraphWF graph,LongsHashSet wasEdges,LongSet wasStrats,
+                        CoverageCache coverage){
+        LongArrayList dfsStack = new LongArrayList();
+        IntArrayList dfsStringLen = new IntArrayList();
         dfsStack.push(start);
         dfsStringLen.push(0);
-        StringBuilder curTs = new StringBuilder();
+        NucBuffer curTs = new NucBuffer();
         int curLen = 0;
         int lenGen = 0;
         int numOfTr = 1;
-        Map<Long,Integer> wasVerts = new HashMap<Long, Integer>();
+        // vertex -> number of the path it was visited on, 0 if it wasn't visited
+        Long2IntOpenHashMap wasVerts = new Long2IntOpenHashMap();
+        int firstNucShift = 2 * (k - 1);
         while (!dfsStack.isEmpty()){
-            long curV = dfsStack.pop();
-            int nextLen = dfsStringLen.pop();
+            long curV = dfsStack.popLong();
+            int nextLen = dfsStringLen.popInt();
             wasStrats.add(Math.min(curV,graph.reverseComplementEdge(curV)>>2));
 
             if (curLen != nextLen){
-                curTs.delete(nextLen,curTs.length());
+                curTs.setLength(nextLen);
                 lenGen = 0;
                 curLen = nextLen;
                 numOfTr++;
             }
 
-            curTs.append(KmerUtils.kmer2String(curV,k).charAt(0));
+            curTs.append((byte) ((curV >>> firstNucShift) & 3));
             curLen++;
             lenGen++;
             wasVerts.put(curV,numOfTr);
 
+            // outcomes to continue with are found once and are marked in nextMask
+            long[] outcomes = graph.outcomeEdges(curV);
+            int curFreq = coverage.get(curV);
+            int nextMask = 0;
             int outEdgesCount = 0;
-            for (long outcome: graph.outcomeEdges(curV)){
-                if (!wasEdges.contains(Math.min(outcome,graph.reverseComplementEdge(outcome))) && (!wasVerts.containsKey(outcome&graph.vertexMask) || (wasVerts.get(outcome&graph.vertexMask)<numOfTr))){
-                    float freqRatio = (float)(getFreq(curV,graph,wasEdges))/(float)(getFreq(outcome&graph.vertexMask,graph,wasEdges));
+            for (int i = 0; i < outcomes.length; i++){
+                long outcome = outcomes[i];
+                if (!wasEdges.contains(Math.min(outcome,graph.reverseComplementEdge(outcome))) && (wasVerts.get(outcome&graph.vertexMask)<numOfTr)){
+                    float freqRatio = (float)(curFreq)/(float)(coverage.get(outcome&graph.vertexMask));
                     if (Math.min(freqRatio,1f/freqRatio)>minNextFreq){
+                        nextMask |= 1 << i;
                         outEdgesCount++;
                     }
                 }
@@ -159,19 +206,15 @@ public class SmallComponentsAssembler extends Tool {
                 wasVerts.put(curV,numOfTr);
             }
 
-            for (long outcome: graph.outcomeEdges(curV)){
-                if (!wasEdges.contains(Math.min(outcome,graph.reverseComplementEdge(outcome)))&& (!wasVerts.containsKey(outcome&graph.vertexMask) || (wasVerts.get(outcome&graph.vertexMask)<numOfTr))){
-                    float freqRatio = (float)(getFreq(curV,graph,wasEdges))/(float)(getFreq(outcome&graph.vertexMask,graph,wasEdges));
-                    if (Math.min(freqRatio,1f/freqRatio)>minNextFreq){
-                        dfsStack.push(outcome&graph.vertexMask);
-                        dfsStringLen.push(curLen);
-                    }
+            for (int i = 0; i < outcomes.length; i++){
+                if ((nextMask & (1 << i)) != 0){
+                    dfsStack.push(outcomes[i]&graph.vertexMask);
+                    dfsStringLen.push(curLen);
                 }
             }
             if ((outEdgesCount == 0) && (lenGen>= minLenOfGen)){
-                totalTranscripts++;
-                out.println(">" + totalTranscripts + " len="+curTs.length());
-                out.println(curTs+KmerUtils.kmer2String(curV,k).substring(1));
+                out.println(">" + totalTranscripts.incrementAndGet() + " len="+curTs.length());
+                printTranscript(out, curTs, curV);
             }
 
             if (numOfTr > 50){
@@ -181,14 +224,28 @@ public class SmallComponentsAssembler extends Tool {
         return true;
     }
 
+    /**
+     * Prints path followed by the last k - 1 nucleotides of its last vertex.
+     */
+    private void printTranscript(PrintWriter out, NucBuffer path, long lastV) {
+        char[] line = new char[path.length() + k - 1];
+        path.getChars(line, 0);
+        for (int i = k - 2, pos = path.length(); i >= 0; i--, pos++) {
+            line[pos] = DnaTools.toChar((byte) ((lastV >>> (2 * i)) & 3));
+        }
+        out.println(line);
+    }
+
     private void getTranscripts(List<Long> starts, String fnout, CompactDeBruijnGraphWF graph,LongsHashSet wasEdges) throws IOException {
         File fout = new File(fnout+"tr.fasta");
         fout.createNewFile();
         PrintWriter out = new PrintWriter(fout);
-        Set<Long> wasStarts = new HashSet<Long>();
+        LongSet wasStarts = new LongOpenHashSet();
+        // wasEdges doesn't change after makeSimple, so coverage is computed once for the whole component
+        CoverageCache coverage = new CoverageCache(graph, wasEdges);
         for (long start: starts){
             if (!wasStarts.contains(Math.min(start,graph.reverseComplementEdge(start)>>2))){
-                if (!dfs(start,out,graph,wasEdges,wasStarts)){
+                if (!dfs(start,out,graph,wasEdges,wasStarts,coverage)){
                     out.close();
                     fout.delete();
                     return;
@@ -242,35 +299,26 @@ public class SmallComponentsAssembler extends Tool {
         return starts;
     }
 
-    private CompactDeBruijnGraphWF buildGraph(File kmersFile) throws IOException {
-        CompactDeBruijnGraphWF graph;
+    private CompactDeBruijnGraphWF buildGraph(ComponentStore store, int id) throws IOException {
+        CompactDeBruijnGraphWF graph = newGraph(store.edgesNumber(id));
 
-        FileInputStream fileIn = new FileInputStream(kmersFile);
-        long toRead = fileIn.getChannel().size() / 12;
+        long kmerMask;
+        try {
+            kmerMask = GraphLoader.load(graph, store, id, 1);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        checkKmerMask(kmerMask);
 
-        fileIn.close();
+        return graph;
+    }
 
+    private CompactDeBruijnGraphWF newGraph(long toRead) {
         long graphSizeBytes = Math.min(toRead * 24, (long)(Misc.availableMemory() * 0.85));      //check mem
+        return new CompactDeBruijnGraphWF(k, graphSizeBytes);
+    }
 
-        graph = new CompactDeBruijnGraphWF(k, graphSizeBytes);
-
-
-        Timer timer = new Timer();
-        timer.start();
-        long kmerMask = 0;
-
-            fileIn = new FileInputStream(kmersFile);
-            DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn));
-
-            for (long i = 0; i < toRead; ++i) {
-                long kmer = in.readLong();
-                int freq = in.readInt();
-                kmerMask |= kmer;
-                graph.addEdge(kmer,freq);
-            }
-            fileIn.close();
-
-
+    private void checkKmerMask(long kmerMask) {
         if (kmerMask != ((1L << (2 * k + 2)) - 1)) {
             warn("k-mer size mismatch");
             warn("set: " + k);
@@ -282,8 +330,6 @@ public class SmallComponentsAssembler extends Tool {
                 }
             }
         }
-
-        return graph;
     }
 
     @Override
@@ -300,6 +346,31 @@ public class SmallComponentsAssembler extends Tool {
         new SmallComponentsAssembler().mainImpl(args);
     }
 
+    /**
+     * Coverage of vertices (see getFreq) of one component, computed on demand.
+     * Must be recreated when wasEdges changes.
+     */
+    private class CoverageCache {
+        private final CompactDeBruijnGraphWF graph;
+        private final LongsHashSet wasEdges;
+        private final Long2IntOpenHashMap freqs = new Long2IntOpenHashMap();
+
+        CoverageCache(CompactDeBruijnGraphWF graph, LongsHashSet wasEdges) {
+            this.graph = graph;
+            this.wasEdges = wasEdges;
+            freqs.defaultReturnValue(-1);
+        }
+
+        int get(long v) {
+            int freq = freqs.get(v);
+            if (freq < 0) {
+                freq = getFreq(v, graph, wasEdges);
+                freqs.put(v, freq);
+            }
+            return freq;
+        }
+    }
+
     private int getFreq(long v, CompactDeBruijnGraphWF graph, LongsHashSet wasEdges){
         return getFreqImpl(v,graph,wasEdges)+getFreqImpl(graph.reverseComplementEdge(v)>>2,graph,wasEdges);
     }
@@ -0,0 +1,170 @@
+package ru.ifmo.genetics.tools.transcriptome;
+
+import ru.ifmo.genetics.executors.PatientExecutorService;
+import ru.ifmo.genetics.statistics.Timer;
+import ru.ifmo.genetics.transcriptome.ComponentCollector;
+import ru.ifmo.genetics.transcriptome.ComponentsQueue;
+import ru.ifmo.genetics.utils.Misc;
+import ru.ifmo.genetics.utils.tool.ExecutionFailedException;
+import ru.ifmo.genetics.utils.tool.Parameter;
+import ru.ifmo.genetics.utils.tool.Tool;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.FileParameterBuilder;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.IntParameterBuilder;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.LongParameterBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link ConnectedComponentsAssembler}, {@link BigComponentsDivider} and {@link SmallComponentsAssembler}
+ * as one stage. Components are passed between them through bounded in-memory queues
+ * and are written to disk only when queues are full. <br>
+ *
+ * Small components are assembled while connected components are being searched,
+ * big ones are divided after the whole graph is released.
+ */
+public class StreamingComponentsAssembler extends Tool {
+    public static final String NAME = "streaming-components-assembler";
+    public static final String DESCRIPTION = "finds components and assembles transcripts passing components in memory";
+
+    // input params
+    public final Parameter<File> kmersFileFolder = addParameter(new FileParameterBuilder("kmers-file-folder")
+            .mandatory()
+            .withDescription("files with (k+1)-mers to add")
+            .create());
+
+    public final Parameter<Integer> kParameter = addParameter(new IntParameterBuilder("k")
+            .mandatory()
+            .withShortOpt("k")
+            .withDescription("k-mer size (vertex, not edge)")
+            .create());
+
+    public final Parameter<Long> queuesMemory = addParameter(new LongParameterBuilder("queues-memory")
+            .optional()
+            .withDescription("memory for components passed between stages in bytes, the rest is spilled to disk " +
+                    "(default: 10% of available memory)")
+            .create());
+
+
+    public final ConnectedComponentsAssembler componentsSearcher = new ConnectedComponentsAssembler();
+    {
+        setFix(componentsSearcher.kParameter, kParameter);
+        setFix(componentsSearcher.kmersFileFolder, kmersFileFolder);
+        setFixDefault(componentsSearcher.outFilePrefix);
+        addSubTool(componentsSearcher);
+    }
+
+    public final BigComponentsDivider bigTrDivider = new BigComponentsDivider();
+    {
+        setFix(bigTrDivider.kParameter, kParameter);
+        setFix(bigTrDivider.filePrefix, componentsSearcher.outFilePrefix);
+        setFixDefault(bigTrDivider.outFilePrefix);
+        addSubTool(bigTrDivider);
+    }
+
+    public final SmallComponentsAssembler smallTrAssembler = new SmallComponentsAssembler();
+    {
+        setFix(smallTrAssembler.kParameter, kParameter);
+        setFix(smallTrAssembler.filePrefix, componentsSearcher.outFilePrefix);
+        addSubTool(smallTrAssembler);
+    }
+
+    // long edge and int freq
+    private static final int BYTES_PER_EDGE = 12;
+
+    @Override
+    protected void runImpl() throws ExecutionFailedException {
+        long availableMemory = Misc.availableMemory();
+        long memory = (queuesMemory.get() != null) ? queuesMemory.get() : availableMemory / 10;
+        long edgesInMemory = memory / BYTES_PER_EDGE / 2;
+        debug("Queues memory = " + memory + " bytes");
+        // the graph is searched while queues are being filled
+        componentsSearcher.setMemoryLimit(Math.max(availableMemory - memory, 1));
+
+        final ComponentsQueue smallQueue = new ComponentsQueue(edgesInMemory,
+                new File(workDir.get(), "small-spill"));
+        final ComponentsQueue bigQueue = new ComponentsQueue(edgesInMemory,
+                new File(workDir.get(), "big-spill"));
+
+        bigTrDivider.prepare();
+        smallTrAssembler.prepare();
+        Timer timer = new Timer();
+
+        final AtomicInteger componentsNumber = new AtomicInteger();
+        PatientExecutorService executor = new PatientExecutorService(availableProcessors.get());
+        for (int i = 0; i < availableProcessors.get(); i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ComponentsQueue.Component c;
+                        while ((c = smallQueue.take()) != null) {
+                            smallTrAssembler.assemble(c.edges, c.freqs, c.n,
+                                    String.valueOf(componentsNumber.incrementAndGet()));
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        try {
+            componentsSearcher.setSink(ComponentCollector.splitter(smallQueue, bigQueue,
+                    BigComponentsDivider.BIG_COMPONENT_MIN_SIZE));
+            componentsSearcher.simpleRun();
+            bigQueue.close();
+            info("Searching components done, it took " + timer);
+            info(smallQueue.spilled() + " small and " + bigQueue.spilled() + " big components were spilled to disk");
+
+            ComponentsQueue.Component c;
+            while ((c = bigQueue.take()) != null) {
+                bigTrDivider.divide(c.edges, c.freqs, c.n, BigComponentsDivider.START_MIN_NEXT_FREQ, smallQueue);
+            }
+            info("Dividing big components done, it took " + timer);
+        } catch (IOException e) {
+            throw new ExecutionFailedException(e);
+        } catch (InterruptedException e) {
+            throw new ExecutionFailedException(e);
+        } finally {
+            bigQueue.close();
+            smallQueue.close();
+            // consumers finish the closed queue even if searching or dividing failed
+            try {
+                executor.waitForShutdown();
+            } catch (InterruptedException e) {
+                throw new ExecutionFailedException(e);
+            } finally {
+                dispose(smallQueue);
+                dispose(bigQueue);
+            }
+        }
+        info("Assembling transcripts done, it took " + timer);
+    }
+
+    private static void dispose(ComponentsQueue queue) throws ExecutionFailedException {
+        try {
+            queue.dispose();
+        } catch (IOException e) {
+            throw new ExecutionFailedException(e);
+        }
+    }
+
+    @Override
+    protected void clean() throws ExecutionFailedException {
+        componentsSearcher.setSink(null);
+        componentsSearcher.setMemoryLimit(0);
+    }
+
+    public StreamingComponentsAssembler() {
+        super(NAME, DESCRIPTION);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    public static void main(String[] args) {
+        new StreamingComponentsAssembler().mainImpl(args);
+    }
+}
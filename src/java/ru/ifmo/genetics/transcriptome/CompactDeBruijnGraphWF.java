@@ -3,26 +3,31 @@ package ru.ifmo.genetics.transcriptome;
 import org.apache.commons.lang.mutable.MutableLong;
 import org.apache.hadoop.io.Writable;
 import ru.ifmo.genetics.dna.kmers.BigKmer;
+import ru.ifmo.genetics.io.SnapshotReader;
+import ru.ifmo.genetics.io.SnapshotWriter;
 import ru.ifmo.genetics.structures.debriujn.AbstractDeBruijnGraph;
 import ru.ifmo.genetics.structures.debriujn.DeBruijnGraph;
-import ru.ifmo.genetics.structures.map.BigLong2IntHashMap;
+import ru.ifmo.genetics.structures.map.ConcurrentBigLong2IntHashMap;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
 
 public class CompactDeBruijnGraphWF extends AbstractDeBruijnGraph implements Writable, DeBruijnGraph {
-    private BigLong2IntHashMap edges;
+    public static final int SNAPSHOT_TYPE = 2;
+
+    private ConcurrentBigLong2IntHashMap edges;
     private long memSize;
 
     public CompactDeBruijnGraphWF() {
-        edges = new BigLong2IntHashMap();
+        edges = new ConcurrentBigLong2IntHashMap();
     }
 
     public CompactDeBruijnGraphWF(int k, long memSize) {
         setK(k);
-        edges = new BigLong2IntHashMap(memSize);
+        edges = new ConcurrentBigLong2IntHashMap(memSize);
         this.memSize = memSize;
     }
 
@@ -31,10 +36,22 @@ public class CompactDeBruijnGraphWF extends AbstractDeBruijnGraph implements Wri
     }
 
 
+    /**
+     * Thread-safe, edges can be added concurrently.
+     */
     public int addEdge(long e,int fr) {
         return edges.put(Math.min(e, reverseComplementEdge(e)),fr);
     }
 
+    /**
+     * Adds first n edges from the arrays, can be called from several threads.
+     */
+    public void addEdges(long[] es, int[] frs, int n) {
+        for (int i = 0; i < n; ++i) {
+            addEdge(es[i], frs[i]);
+        }
+    }
+
     @Override
     public boolean containsEdge(BigKmer e) {
         return edges.contains(e.biLongHashCode());
@@ -49,6 +66,25 @@ public class CompactDeBruijnGraphWF extends AbstractDeBruijnGraph implements Wri
         return edges.size();
     }
 
+    public long capacity() {
+        return edges.capacity();
+    }
+
+    public boolean containsAt(long i) {
+        return edges.containsAt(i);
+    }
+
+    public long edgeAt(long i) {
+        return edges.keyAt(i);
+    }
+
+    /**
+     * @return position of edge in the underlying hash table or -1 if there is no such edge
+     */
+    public long getEdgePosition(long e) {
+        return edges.getPosition(Math.min(e, reverseComplementEdge(e)));
+    }
+
 
     @Override
     public void write(DataOutput out) throws IOException {
@@ -63,6 +99,31 @@ public class CompactDeBruijnGraphWF extends AbstractDeBruijnGraph implements Wri
         setK(k);
     }
 
+    /**
+     * Saves graph in snapshot format, see {@link SnapshotWriter}.
+     */
+    public void writeSnapshot(File file) throws IOException {
+        SnapshotWriter out = new SnapshotWriter(file, SNAPSHOT_TYPE);
+        out.writeLong(k);
+        out.writeLong(memSize);
+        edges.writeSnapshot(out);
+        out.close();
+    }
+
+    /**
+     * Maps graph from snapshot file and uses it in place, graph becomes read-only.
+     */
+    public void readSnapshot(File file) throws IOException {
+        SnapshotReader in = new SnapshotReader(file, SNAPSHOT_TYPE);
+        try {
+            setK((int) in.readLong());
+            memSize = in.readLong();
+            edges.readSnapshot(in);
+        } finally {
+            in.close();
+        }
+    }
+
     public int getFreg(long e){
         return edges.get(Math.min(e,reverseComplementEdge(e)));
     }
@@ -101,6 +162,55 @@ public class CompactDeBruijnGraphWF extends AbstractDeBruijnGraph implements Wri
         return res;
     }
 
+    /**
+     * Finds all edges of vertex v in one pass without allocations.
+     * @return mask, where bit i (0 <= i < 4) is set if there is outcome edge to nucleotide i,
+     *          and bit (4 + i) is set if there is income edge from nucleotide i
+     */
+    public int adjacencyMask(long v) {
+        v &= vertexMask;
+        int mask = 0;
+
+        long e = v << 2;
+        long rcE = reverseComplementEdge(e);
+        for (int i = 0; i < 4; i++, e++, rcE -= incomeEdgeIncrement) {
+            if (edges.contains(Math.min(e, rcE))) {
+                mask |= 1 << i;
+            }
+        }
+
+        e = v;
+        rcE = reverseComplementEdge(e);
+        for (int i = 0; i < 4; i++, e += incomeEdgeIncrement, rcE--) {
+            if (edges.contains(Math.min(e, rcE))) {
+                mask |= 1 << (4 + i);
+            }
+        }
+        return mask;
+    }
+
+    public static int outcomeDegree(int adjacencyMask) {
+        return Integer.bitCount(adjacencyMask & 0xf);
+    }
+
+    public static int incomeDegree(int adjacencyMask) {
+        return Integer.bitCount(adjacencyMask >>> 4);
+    }
+
+    /**
+     * @return outcome edge of vertex v to nucleotide nuc (bit nuc in adjacency mask)
+     */
+    public long outcomeEdge(long v, int nuc) {
+        return ((v & vertexMask) << 2) | nuc;
+    }
+
+    /**
+     * @return income edge of vertex v from nucleotide nuc (bit (4 + nuc) in adjacency mask)
+     */
+    public long incomeEdge(long v, int nuc) {
+        return (v & vertexMask) | (nuc * incomeEdgeIncrement);
+    }
+
     public Iterator<MutableLong> getIterator(){
         return edges.iterator();
     }
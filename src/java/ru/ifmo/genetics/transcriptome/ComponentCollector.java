@@ -0,0 +1,111 @@
+package ru.ifmo.genetics.transcriptome;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Collects edges of one component found by BFS and passes it to one of two sinks by its size. <br>
+ *
+ * Only the first threshold edges are kept in memory. Components with less than threshold edges
+ * are passed to small sink when they are finished (or are dropped if it is null),
+ * as soon as component reaches threshold edges it is streamed to big sink.
+ */
+public class ComponentCollector {
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private final ComponentSink small;
+    private final ComponentSink big;
+    private final int threshold;
+
+    private long[] edges;
+    private int[] freqs;
+    private long size = 0;
+    private ComponentWriter writer;
+
+    public ComponentCollector(ComponentSink small, ComponentSink big, int threshold) {
+        this.small = small;
+        this.big = big;
+        this.threshold = threshold;
+        int capacity = Math.min(threshold, INITIAL_CAPACITY);
+        edges = new long[capacity];
+        freqs = new int[capacity];
+    }
+
+    /**
+     * Components with less than minSize edges are dropped.
+     */
+    public ComponentCollector(ComponentSink sink, int minSize) {
+        this(null, sink, minSize);
+    }
+
+    /**
+     * Returns sink which passes components with less than threshold edges to small sink and others to big one.
+     */
+    public static ComponentSink splitter(final ComponentSink small, final ComponentSink big, final int threshold) {
+        return new ComponentSink() {
+            @Override
+            public ComponentWriter begin() {
+                final ComponentCollector collector = new ComponentCollector(small, big, threshold);
+                return new ComponentWriter() {
+                    @Override
+                    public void append(long edge, int freq) throws IOException {
+                        collector.add(edge, freq);
+                    }
+
+                    @Override
+                    public void end() throws IOException {
+                        collector.finish();
+                    }
+                };
+            }
+        };
+    }
+
+    public void add(long edge, int freq) throws IOException {
+        if (writer == null && size == threshold) {
+            writer = big.begin();
+            writeCollected();
+        }
+        if (writer != null) {
+            writer.append(edge, freq);
+        } else {
+            if (size == edges.length) {
+                int newCapacity = (int) Math.min(2L * edges.length, threshold);
+                edges = Arrays.copyOf(edges, newCapacity);
+                freqs = Arrays.copyOf(freqs, newCapacity);
+            }
+            edges[(int) size] = edge;
+            freqs[(int) size] = freq;
+        }
+        size++;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Finishes component, passing it to the sink chosen by its size.
+     * @return false if component was dropped
+     */
+    public boolean finish() throws IOException {
+        if (writer == null) {
+            ComponentSink sink = (size < threshold) ? small : big;
+            if (sink == null) {
+                return false;
+            }
+            writer = sink.begin();
+            writeCollected();
+        }
+        writer.end();
+        return true;
+    }
+
+    private void writeCollected() throws IOException {
+        for (int i = 0; i < size; i++) {
+            writer.append(edges[i], freqs[i]);
+        }
+        edges = null;
+        freqs = null;
+    }
+}
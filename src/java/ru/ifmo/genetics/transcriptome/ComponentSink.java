@@ -0,0 +1,16 @@
+package ru.ifmo.genetics.transcriptome;
+
+import java.io.IOException;
+
+/**
+ * Receiver of de Bruijn graph components found by transcriptome tools. <br>
+ *
+ * Components are passed edge by edge, so producers don't have to keep whole components in memory.
+ */
+public interface ComponentSink {
+    /**
+     * Starts new component, its edges are passed to the returned writer.
+     * Can be called concurrently, every writer is used by one thread.
+     */
+    public ComponentWriter begin() throws IOException;
+}
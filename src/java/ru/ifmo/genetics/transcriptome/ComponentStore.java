@@ -0,0 +1,349 @@
+package ru.ifmo.genetics.transcriptome;
+
+import ru.ifmo.genetics.executors.PatientExecutorService;
+import ru.ifmo.genetics.io.readers.MappedKmerCountsReader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Append-only container of de Bruijn graph components. <br>
+ *
+ * All components are stored in one data file as (long edge, int freq) records, see {@link MappedKmerCountsReader}.
+ * Index file contains (long offset, long length, int edgesNumber, int flags) entry for every component,
+ * offset and length are in bytes. Components are identified by their numbers in the index,
+ * removed components are only marked as deleted. <br>
+ *
+ * Components can be written concurrently, each one is collected by its writer (big ones in a temporary file
+ * in the store directory) and is appended to the data file as a contiguous range when it is finished.
+ * Reads can be concurrent with additions. Index is written on {@link #close()}.
+ */
+public class ComponentStore implements ComponentSink {
+    public static final String DATA_FILE_NAME = "components.data";
+    public static final String INDEX_FILE_NAME = "components.index";
+
+    public static final int RECORD_SIZE = MappedKmerCountsReader.RECORD_SIZE;
+    static final int INDEX_RECORD_SIZE = 24;
+    static final int DELETED = 1;
+
+    static final long TASK_RECORDS = 1 << 22;
+    // writers keep up to this number of records in memory, the rest goes to temporary files
+    static final int WRITER_BUFFER_RECORDS = 1 << 16;
+    static final int WRITER_INITIAL_RECORDS = 1 << 8;
+
+    private final File dir;
+    private final File dataFile;
+    private final File indexFile;
+
+    private RandomAccessFile dataOut;
+    private RandomAccessFile dataIn;
+    private long dataLength;
+
+    private long[] offsets = new long[16];
+    private int[] edgesNumbers = new int[16];
+    private int[] flags = new int[16];
+    private volatile int size = 0;
+    private boolean indexChanged = false;
+
+    private ComponentStore(File dir) {
+        this.dir = dir;
+        dataFile = new File(dir, DATA_FILE_NAME);
+        indexFile = new File(dir, INDEX_FILE_NAME);
+    }
+
+    /**
+     * Creates new empty store in directory dir, previous store in it is removed.
+     */
+    public static ComponentStore create(File dir) throws IOException {
+        dir.mkdirs();
+        ComponentStore store = new ComponentStore(dir);
+        for (File f : new File[]{store.dataFile, store.indexFile}) {
+            if (f.exists() && !f.delete()) {
+                throw new IOException("Can't delete " + f);
+            }
+        }
+        store.indexChanged = true;
+        return store;
+    }
+
+    /**
+     * Opens store previously written to directory dir.
+     */
+    public static ComponentStore open(File dir) throws IOException {
+        ComponentStore store = new ComponentStore(dir);
+        if (!store.indexFile.exists()) {
+            throw new FileNotFoundException("No component store in " + dir);
+        }
+        store.readIndex();
+        return store;
+    }
+
+    public static boolean exists(File dir) {
+        return new File(dir, INDEX_FILE_NAME).exists();
+    }
+
+    private void readIndex() throws IOException {
+        int n = (int) (indexFile.length() / INDEX_RECORD_SIZE);
+        ensureCapacity(n);
+        dataLength = dataFile.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            for (int i = 0; i < n; i++) {
+                offsets[i] = in.readLong();
+                long length = in.readLong();
+                edgesNumbers[i] = in.readInt();
+                flags[i] = in.readInt();
+                if (length != (long) edgesNumbers[i] * RECORD_SIZE || offsets[i] < 0 || offsets[i] + length > dataLength) {
+                    throw new IOException("Broken index entry " + i + " in " + indexFile);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        size = n;
+    }
+
+    private void writeIndex() throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            for (int i = 0; i < size; i++) {
+                out.writeLong(offsets[i]);
+                out.writeLong((long) edgesNumbers[i] * RECORD_SIZE);
+                out.writeInt(edgesNumbers[i]);
+                out.writeInt(flags[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > offsets.length) {
+            int newLength = Math.max(n, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, newLength);
+            edgesNumbers = Arrays.copyOf(edgesNumbers, newLength);
+            flags = Arrays.copyOf(flags, newLength);
+        }
+    }
+
+    /**
+     * Starts new component, it gets the next number when its writer is ended.
+     */
+    @Override
+    public ComponentWriter begin() {
+        return new Writer();
+    }
+
+    /**
+     * Appends records collected by writer to the data file.
+     * @param tmp temporary file with the first records of component or null
+     * @param rest the last records of component
+     * @return number of added component
+     */
+    private synchronized int add(FileChannel tmp, ByteBuffer rest, long n) throws IOException {
+        if (n > Integer.MAX_VALUE) {
+            throw new IOException("Component with " + n + " edges is too big for " + dataFile);
+        }
+        if (dataOut == null) {
+            dataOut = new RandomAccessFile(dataFile, "rw");
+        }
+        FileChannel out = dataOut.getChannel();
+        out.position(dataLength);
+        if (tmp != null) {
+            long tmpLength = tmp.size();
+            for (long done = 0; done < tmpLength; ) {
+                done += tmp.transferTo(done, tmpLength - done, out);
+            }
+        }
+        while (rest.hasRemaining()) {
+            out.write(rest);
+        }
+
+        int id = size;
+        ensureCapacity(id + 1);
+        offsets[id] = dataLength;
+        edgesNumbers[id] = (int) n;
+        flags[id] = 0;
+        dataLength += n * RECORD_SIZE;
+        indexChanged = true;
+        size = id + 1;
+        return id;
+    }
+
+    /**
+     * @return number of components, including deleted ones
+     */
+    public int size() {
+        return size;
+    }
+
+    public synchronized int edgesNumber(int id) {
+        return edgesNumbers[id];
+    }
+
+    public synchronized boolean isDeleted(int id) {
+        return (flags[id] & DELETED) != 0;
+    }
+
+    public synchronized void delete(int id) {
+        flags[id] |= DELETED;
+        indexChanged = true;
+    }
+
+    /**
+     * @return numbers of all not deleted components
+     */
+    public synchronized int[] components() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if ((flags[i] & DELETED) == 0) {
+                n++;
+            }
+        }
+        int[] res = new int[n];
+        for (int i = 0, j = 0; i < size; i++) {
+            if ((flags[i] & DELETED) == 0) {
+                res[j++] = i;
+            }
+        }
+        return res;
+    }
+
+    private synchronized FileChannel channelForReading() throws IOException {
+        if (dataIn == null) {
+            dataIn = new RandomAccessFile(dataFile, "r");
+        }
+        return dataIn.getChannel();
+    }
+
+    private class Writer implements ComponentWriter {
+        private ByteBuffer buffer = ByteBuffer.allocate(WRITER_INITIAL_RECORDS * RECORD_SIZE);
+        private File tmpFile;
+        private RandomAccessFile tmp;
+        private long n = 0;
+
+        @Override
+        public void append(long edge, int freq) throws IOException {
+            if (!buffer.hasRemaining()) {
+                if (buffer.capacity() < WRITER_BUFFER_RECORDS * RECORD_SIZE) {
+                    ByteBuffer newBuffer = ByteBuffer.allocate(2 * buffer.capacity());
+                    buffer.flip();
+                    newBuffer.put(buffer);
+                    buffer = newBuffer;
+                } else {
+                    spill();
+                }
+            }
+            buffer.putLong(edge);
+            buffer.putInt(freq);
+            n++;
+        }
+
+        private void spill() throws IOException {
+            if (tmp == null) {
+                tmpFile = File.createTempFile("component", ".tmp", dir);
+                tmp = new RandomAccessFile(tmpFile, "rw");
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                tmp.getChannel().write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void end() throws IOException {
+            buffer.flip();
+            try {
+                add((tmp == null) ? null : tmp.getChannel(), buffer, n);
+            } finally {
+                buffer = null;
+                if (tmp != null) {
+                    tmp.close();
+                    //noinspection ResultOfMethodCallIgnored
+                    tmpFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads edges of component id, handler is called in the current thread.
+     */
+    public void read(int id, MappedKmerCountsReader.BatchHandler handler) throws IOException {
+        long from;
+        int n;
+        synchronized (this) {
+            from = offsets[id] / RECORD_SIZE;
+            n = edgesNumbers[id];
+        }
+        MappedKmerCountsReader.read(channelForReading(), from, from + n, handler);
+    }
+
+    /**
+     * Reads edges of component id, its ranges are read in parallel.
+     */
+    public void read(int id, int threads, final MappedKmerCountsReader.BatchHandler handler)
+            throws IOException, InterruptedException {
+        long from;
+        int n;
+        synchronized (this) {
+            from = offsets[id] / RECORD_SIZE;
+            n = edgesNumbers[id];
+        }
+        if (threads <= 1 || n <= TASK_RECORDS) {
+            read(id, handler);
+            return;
+        }
+
+        final FileChannel channel = channelForReading();
+        PatientExecutorService executor = new PatientExecutorService(threads);
+        for (long f = from; f < from + n; f += TASK_RECORDS) {
+            final long rangeFrom = f;
+            final long rangeTo = Math.min(from + n, f + TASK_RECORDS);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        MappedKmerCountsReader.read(channel, rangeFrom, rangeTo, handler);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Can't read " + dataFile, e);
+                    }
+                }
+            });
+        }
+        executor.waitForShutdown();
+    }
+
+    /**
+     * Flushes added components and writes index if it was changed.
+     */
+    public synchronized void close() throws IOException {
+        if (dataOut != null) {
+            dataOut.close();
+            dataOut = null;
+        }
+        if (dataIn != null) {
+            dataIn.close();
+            dataIn = null;
+        }
+        if (indexChanged) {
+            writeIndex();
+            indexChanged = false;
+        }
+    }
+
+    /**
+     * Closes store and deletes its files.
+     */
+    public synchronized void remove() throws IOException {
+        indexChanged = false;
+        close();
+        //noinspection ResultOfMethodCallIgnored
+        dataFile.delete();
+        //noinspection ResultOfMethodCallIgnored
+        indexFile.delete();
+    }
+}
@@ -0,0 +1,15 @@
+package ru.ifmo.genetics.transcriptome;
+
+import java.io.IOException;
+
+/**
+ * Receives edges of one component, see {@link ComponentSink#begin()}. Is used by one thread.
+ */
+public interface ComponentWriter {
+    public void append(long edge, int freq) throws IOException;
+
+    /**
+     * Finishes component, nothing can be appended after the call.
+     */
+    public void end() throws IOException;
+}
@@ -0,0 +1,194 @@
+package ru.ifmo.genetics.transcriptome;
+
+import ru.ifmo.genetics.executors.PatientExecutorService;
+import ru.ifmo.genetics.structures.arrays.BigAtomicLongArray;
+
+/**
+ * Finds connected components of {@link CompactDeBruijnGraphWF} using all available processors. <br>
+ *
+ * Every edge is identified by its position in the graph's hash table. Components are found with
+ * lock-free union-find over these positions, after {@link #label()} every edge is labeled with
+ * the position of the component's representative edge (the one with minimal position). <br>
+ *
+ * Stop vertices (see {@link #isStopVertex}) don't join their edges into one component,
+ * edges with both ends in stop vertices don't belong to any component.
+ */
+public abstract class ComponentsLabeler {
+    public static final long NO_COMPONENT = -1;
+
+    static final int CHUNK_SIZE = 1 << 20;
+
+    protected final CompactDeBruijnGraphWF graph;
+    private final int threads;
+    private BigAtomicLongArray labels;
+
+    public ComponentsLabeler(CompactDeBruijnGraphWF graph, int threads) {
+        this.graph = graph;
+        this.threads = threads;
+    }
+
+    /**
+     * @param adjacencyMask mask of vertex v edges, see {@link CompactDeBruijnGraphWF#adjacencyMask}
+     * @return true if edges of vertex v shouldn't be joined through it
+     */
+    public abstract boolean isStopVertex(long v, int adjacencyMask);
+
+    public boolean isStopVertex(long v) {
+        return isStopVertex(v, graph.adjacencyMask(v));
+    }
+
+    public void label() throws InterruptedException {
+        labels = new BigAtomicLongArray(graph.capacity());
+
+        forEachChunk(new ChunkTask() {
+            @Override
+            public void process(long begin, long end) {
+                for (long i = begin; i < end; ++i) {
+                    labels.set(i, graph.containsAt(i) ? i : NO_COMPONENT);
+                }
+            }
+        });
+
+        forEachChunk(new ChunkTask() {
+            @Override
+            public void process(long begin, long end) {
+                for (long i = begin; i < end; ++i) {
+                    if (labels.get(i) != NO_COMPONENT) {
+                        joinEdge(i);
+                    }
+                }
+            }
+        });
+
+        forEachChunk(new ChunkTask() {
+            @Override
+            public void process(long begin, long end) {
+                for (long i = begin; i < end; ++i) {
+                    if (labels.get(i) != NO_COMPONENT) {
+                        labels.set(i, find(i));
+                    }
+                }
+            }
+        });
+    }
+
+    private void joinEdge(long i) {
+        long e = graph.edgeAt(i);
+        long from = e >>> 2;
+        long to = e & graph.vertexMask;
+        int fromMask = graph.adjacencyMask(from);
+        int toMask = graph.adjacencyMask(to);
+
+        boolean fromStop = isStopVertex(from, fromMask);
+        boolean toStop = isStopVertex(to, toMask);
+        if (fromStop && toStop) {
+            // nobody else joins this edge, it's still a root
+            labels.set(i, NO_COMPONENT);
+            return;
+        }
+        if (!fromStop) {
+            joinVertexEdges(i, from, fromMask);
+        }
+        if (!toStop) {
+            joinVertexEdges(i, to, toMask);
+        }
+    }
+
+    private void joinVertexEdges(long i, long v, int adjacencyMask) {
+        for (int m = adjacencyMask & 0xf; m != 0; m &= m - 1) {
+            union(i, graph.getEdgePosition(graph.outcomeEdge(v, Integer.numberOfTrailingZeros(m))));
+        }
+        for (int m = adjacencyMask >>> 4; m != 0; m &= m - 1) {
+            union(i, graph.getEdgePosition(graph.incomeEdge(v, Integer.numberOfTrailingZeros(m))));
+        }
+    }
+
+    private long find(long x) {
+        while (true) {
+            long p = labels.get(x);
+            if (p == x) {
+                return x;
+            }
+            long gp = labels.get(p);
+            if (p != gp) {
+                // path halving, labels only decrease so it's safe to lose this race
+                labels.compareAndSet(x, p, gp);
+            }
+            x = gp;
+        }
+    }
+
+    private void union(long a, long b) {
+        while (true) {
+            a = find(a);
+            b = find(b);
+            if (a == b) {
+                return;
+            }
+            if (a < b) {
+                long t = a;
+                a = b;
+                b = t;
+            }
+            // hanging the root with greater position, so representative is the minimal position
+            if (labels.compareAndSet(a, a, b)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return position of the component's representative edge or {@link #NO_COMPONENT}
+     */
+    public long getLabel(long i) {
+        return labels.get(i);
+    }
+
+    /**
+     * Atomically takes edge at position i from the component with representative root.
+     * @return true if edge was in this component and wasn't taken before
+     */
+    public boolean take(long i, long root) {
+        return labels.compareAndSet(i, root, NO_COMPONENT);
+    }
+
+    /**
+     * Calls visitor for every component representative, visitors are called concurrently.
+     */
+    public void forEachComponent(final ComponentVisitor visitor) throws InterruptedException {
+        forEachChunk(new ChunkTask() {
+            @Override
+            public void process(long begin, long end) {
+                for (long i = begin; i < end; ++i) {
+                    if (labels.get(i) == i) {
+                        visitor.visit(i);
+                    }
+                }
+            }
+        });
+    }
+
+    private void forEachChunk(final ChunkTask task) throws InterruptedException {
+        PatientExecutorService executor = new PatientExecutorService(threads);
+        long capacity = graph.capacity();
+        for (long begin = 0; begin < capacity; begin += CHUNK_SIZE) {
+            final long b = begin;
+            final long e = Math.min(capacity, begin + CHUNK_SIZE);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    task.process(b, e);
+                }
+            });
+        }
+        executor.waitForShutdown();
+    }
+
+    private interface ChunkTask {
+        public void process(long begin, long end);
+    }
+
+    public interface ComponentVisitor {
+        public void visit(long root);
+    }
+}
@@ -0,0 +1,215 @@
+package ru.ifmo.genetics.transcriptome;
+
+import ru.ifmo.genetics.io.readers.MappedKmerCountsReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+/**
+ * Bounded in-memory queue of components passed between transcriptome pipeline stages. <br>
+ *
+ * Components are collected in memory while total capacity of their arrays doesn't exceed the limit,
+ * a component which doesn't fit is spilled to {@link ComponentStore} in spill directory,
+ * so producers never block. Consumers take components from memory first and then the spilled ones.
+ */
+public class ComponentsQueue implements ComponentSink {
+    public static class Component {
+        public final long[] edges;
+        public final int[] freqs;
+        public final int n;
+
+        public Component(long[] edges, int[] freqs, int n) {
+            this.edges = edges;
+            this.freqs = freqs;
+            this.n = n;
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private final long maxEdgesInMemory;
+    private final File spillDir;
+
+    private final Queue<Component> queue = new ArrayDeque<Component>();
+    private long edgesInMemory = 0;
+
+    private ComponentStore spill;
+    private int spillTaken = 0;
+
+    private boolean closed = false;
+
+    /**
+     * @param maxEdgesInMemory components are spilled when they exceed this limit
+     */
+    public ComponentsQueue(long maxEdgesInMemory, File spillDir) {
+        this.maxEdgesInMemory = maxEdgesInMemory;
+        this.spillDir = spillDir;
+    }
+
+    @Override
+    public synchronized ComponentWriter begin() {
+        if (closed) {
+            throw new IllegalStateException("Queue is closed");
+        }
+        return new Writer();
+    }
+
+    /**
+     * Reserves memory for edges of a component being collected.
+     * @return false if there is not enough memory
+     */
+    private synchronized boolean reserve(long edges) {
+        if (edgesInMemory + edges > maxEdgesInMemory) {
+            return false;
+        }
+        edgesInMemory += edges;
+        return true;
+    }
+
+    private synchronized void release(long edges) {
+        edgesInMemory -= edges;
+    }
+
+    private synchronized void add(Component c) {
+        queue.add(c);
+        notifyAll();
+    }
+
+    private synchronized ComponentStore spillStore() throws IOException {
+        if (spill == null) {
+            spill = ComponentStore.create(spillDir);
+        }
+        return spill;
+    }
+
+    private synchronized void spilledAdded() {
+        notifyAll();
+    }
+
+    /**
+     * Collects component in memory, reserving place for its arrays as they grow.
+     * Component is spilled as soon as its arrays don't fit the limit.
+     */
+    private class Writer implements ComponentWriter {
+        private long[] edges = new long[0];
+        private int[] freqs = new int[0];
+        private int n = 0;
+        private ComponentWriter spillWriter;
+
+        @Override
+        public void append(long edge, int freq) throws IOException {
+            if (spillWriter == null && n == edges.length) {
+                grow();
+            }
+            if (spillWriter != null) {
+                spillWriter.append(edge, freq);
+                return;
+            }
+            edges[n] = edge;
+            freqs[n] = freq;
+            n++;
+        }
+
+        private void grow() throws IOException {
+            int capacity = edges.length;
+            int newCapacity = (int) Math.min(Math.max(2L * capacity, INITIAL_CAPACITY), MAX_CAPACITY);
+            if (newCapacity > capacity && reserve(newCapacity - capacity)) {
+                edges = Arrays.copyOf(edges, newCapacity);
+                freqs = Arrays.copyOf(freqs, newCapacity);
+                return;
+            }
+
+            spillWriter = spillStore().begin();
+            for (int i = 0; i < n; i++) {
+                spillWriter.append(edges[i], freqs[i]);
+            }
+            edges = null;
+            freqs = null;
+            release(capacity);
+        }
+
+        @Override
+        public void end() throws IOException {
+            if (spillWriter != null) {
+                spillWriter.end();
+                spilledAdded();
+            } else {
+                add(new Component(edges, freqs, n));
+            }
+        }
+    }
+
+    /**
+     * Waits for the next component.
+     * @return next component or null if queue is closed and empty
+     */
+    public Component take() throws IOException, InterruptedException {
+        int spilledId;
+        synchronized (this) {
+            while (queue.isEmpty() && !hasSpilled() && !closed) {
+                wait();
+            }
+            if (!queue.isEmpty()) {
+                Component c = queue.poll();
+                edgesInMemory -= c.edges.length;
+                return c;
+            }
+            if (!hasSpilled()) {
+                return null;
+            }
+            spilledId = spillTaken++;
+        }
+
+        int n = spill.edgesNumber(spilledId);
+        final long[] edges = new long[n];
+        final int[] freqs = new int[n];
+        spill.read(spilledId, new MappedKmerCountsReader.BatchHandler() {
+            int pos = 0;
+
+            @Override
+            public void handle(long[] kmers, int[] counts, int k) {
+                System.arraycopy(kmers, 0, edges, pos, k);
+                System.arraycopy(counts, 0, freqs, pos, k);
+                pos += k;
+            }
+        });
+        return new Component(edges, freqs, n);
+    }
+
+    private boolean hasSpilled() {
+        return (spill != null) && (spillTaken < spill.size());
+    }
+
+    /**
+     * @return number of components spilled to disk
+     */
+    public synchronized int spilled() {
+        return (spill == null) ? 0 : spill.size();
+    }
+
+    /**
+     * Signals that no more components will be put, waiting consumers get null after the queue becomes empty.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Removes spilled components from disk, should be called after all components are taken.
+     */
+    public void dispose() throws IOException {
+        ComponentStore s;
+        synchronized (this) {
+            s = spill;
+            spill = null;
+        }
+        if (s != null) {
+            s.remove();
+        }
+    }
+}
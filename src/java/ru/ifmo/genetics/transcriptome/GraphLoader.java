@@ -0,0 +1,80 @@
+package ru.ifmo.genetics.transcriptome;
+
+import ru.ifmo.genetics.io.readers.MappedKmerCountsReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills {@link CompactDeBruijnGraphWF} with edges from files with (long kmer, int freq) records.
+ */
+public class GraphLoader {
+    private GraphLoader() {
+    }
+
+    public static long recordsNumber(File[] files) {
+        long res = 0;
+        for (File file : files) {
+            res += new MappedKmerCountsReader(file).recordsNumber();
+        }
+        return res;
+    }
+
+    /**
+     * Loads all edges from files using several threads.
+     * @return bitwise OR of all loaded (k+1)-mers, used to check k-mer size
+     */
+    public static long load(CompactDeBruijnGraphWF graph, File[] files, int threads) throws IOException, InterruptedException {
+        AtomicLong kmerMask = new AtomicLong();
+        MappedKmerCountsReader.readAll(files, threads, newHandler(graph, kmerMask));
+        return kmerMask.get();
+    }
+
+    public static long load(CompactDeBruijnGraphWF graph, File file, int threads) throws IOException, InterruptedException {
+        return load(graph, new File[]{file}, threads);
+    }
+
+    /**
+     * Loads edges of component id from store.
+     * @return bitwise OR of all loaded (k+1)-mers, used to check k-mer size
+     */
+    public static long load(CompactDeBruijnGraphWF graph, ComponentStore store, int id, int threads)
+            throws IOException, InterruptedException {
+        AtomicLong kmerMask = new AtomicLong();
+        store.read(id, threads, newHandler(graph, kmerMask));
+        return kmerMask.get();
+    }
+
+    /**
+     * Loads n edges kept in memory.
+     * @return bitwise OR of all loaded (k+1)-mers, used to check k-mer size
+     */
+    public static long load(CompactDeBruijnGraphWF graph, long[] edges, int[] freqs, int n) {
+        long mask = 0;
+        for (int i = 0; i < n; ++i) {
+            mask |= edges[i];
+        }
+        graph.addEdges(edges, freqs, n);
+        return mask;
+    }
+
+    private static MappedKmerCountsReader.BatchHandler newHandler(final CompactDeBruijnGraphWF graph,
+                                                                  final AtomicLong kmerMask) {
+        return new MappedKmerCountsReader.BatchHandler() {
+            @Override
+            public void handle(long[] kmers, int[] counts, int n) {
+                long mask = 0;
+                for (int i = 0; i < n; ++i) {
+                    mask |= kmers[i];
+                }
+                graph.addEdges(kmers, counts, n);
+
+                long old;
+                do {
+                    old = kmerMask.get();
+                } while (!kmerMask.compareAndSet(old, old | mask));
+            }
+        };
+    }
+}
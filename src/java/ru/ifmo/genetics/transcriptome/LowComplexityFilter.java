@@ -0,0 +1,9 @@
+package ru.ifmo.genetics.transcriptome;
+
+/**
+ * Decides whether a k-mer (vertex of de Bruijn graph) is a low-complexity one,
+ * components are never joined through such vertices.
+ */
+public interface LowComplexityFilter {
+    public boolean isLowComplexity(long kmer);
+}
@@ -0,0 +1,28 @@
+package ru.ifmo.genetics.transcriptome;
+
+import ru.ifmo.genetics.utils.KmerUtils;
+
+/**
+ * Marks k-mer as low-complexity if some nucleotide occurs in it more than maxFreq times.
+ */
+public class NucleotideCompositionFilter implements LowComplexityFilter {
+    private final int k;
+    private final int maxFreq;
+
+    public NucleotideCompositionFilter(int k, int maxFreq) {
+        this.k = k;
+        this.maxFreq = maxFreq;
+    }
+
+    /**
+     * Creates filter with default threshold used in transcriptome assembly, i.e. 3/4 of k.
+     */
+    public NucleotideCompositionFilter(int k) {
+        this(k, k / 2 + k / 4);
+    }
+
+    @Override
+    public boolean isLowComplexity(long kmer) {
+        return KmerUtils.maxNucCount(kmer, k) > maxFreq;
+    }
+}
@@ -6,6 +6,8 @@ import ru.ifmo.genetics.dna.DnaTools;
 import ru.ifmo.genetics.dna.LightDna;
 
 public class KmerUtils {
+    private static final long LOW_BITS = 0x5555555555555555L;
+
     private KmerUtils() {
     }
 
@@ -58,4 +60,20 @@ public class KmerUtils {
     public static long getKmerKey(long kmer, int k) {
         return Math.min(kmer, reverseComplement(kmer, k));
     }
+
+    /**
+     * Counts nucleotides of k-mer without unpacking it,
+     * bit planes of nucleotide codes are intersected and counted by popcount.
+     * @return the number of occurrences of the most frequent nucleotide in k-mer
+     */
+    public static int maxNucCount(long kmer, int k) {
+        long plane = (k >= 32) ? LOW_BITS : (LOW_BITS & ((1L << (2 * k)) - 1));
+        long lo = kmer & plane;
+        long hi = (kmer >>> 1) & plane;
+        int c3 = Long.bitCount(lo & hi);
+        int c2 = Long.bitCount(hi) - c3;
+        int c1 = Long.bitCount(lo) - c3;
+        int c0 = k - c1 - c2 - c3;
+        return Math.max(Math.max(c0, c1), Math.max(c2, c3));
+    }
 }
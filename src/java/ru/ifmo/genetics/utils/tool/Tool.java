@@ -8,10 +8,12 @@ import org.apache.log4j.*;
 import org.jetbrains.annotations.NotNull;
 import ru.ifmo.genetics.Runner;
 import ru.ifmo.genetics.statistics.Timer;
+import ru.ifmo.genetics.structures.arrays.BigArrays;
 import ru.ifmo.genetics.utils.Misc;
 import ru.ifmo.genetics.utils.TextUtils;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.BoolParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.IntParameterBuilder;
+import ru.ifmo.genetics.utils.tool.inputParameterBuilder.LongParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.ParameterBuilder;
 import ru.ifmo.genetics.utils.tool.inputParameterBuilder.StringParameterBuilder;
 import ru.ifmo.genetics.utils.tool.parameters.OutputParameter;
@@ -95,6 +97,16 @@ public abstract class Tool {
             .create());
     private static boolean verbose;
 
+    private static final Parameter<Boolean> offHeapArraysParameter = new Parameter<Boolean>(new BoolParameterBuilder("off-heap-arrays")
+            .withDescription("store big arrays and not concurrent hash tables (BigLongsHashSet, BigLong2IntHashMap) " +
+                    "outside of java heap (in direct buffers), concurrent hash tables stay in heap")
+            .create());
+
+    private static final Parameter<Long> offHeapMemoryParameter = new Parameter<Long>(new LongParameterBuilder("off-heap-memory")
+            .withDefaultValue(Runtime.getRuntime().maxMemory())
+            .withDescription("memory for off-heap arrays, should be not greater than -XX:MaxDirectMemorySize")
+            .create());
+
 
     static {
         globalInputParameters.add(workDirParameter);
@@ -105,6 +117,8 @@ public abstract class Tool {
         globalInputParameters.add(finishParameter);
         globalInputParameters.add(helpParameter);
         globalInputParameters.add(verboseParameter);
+        globalInputParameters.add(offHeapArraysParameter);
+        globalInputParameters.add(offHeapMemoryParameter);
     }
 
 
@@ -529,6 +543,8 @@ public abstract class Tool {
         }
         boolean shouldContinue = (continueParameter.get() != null && continueParameter.get());
         boolean forceRun = (forceParameter.get() != null && forceParameter.get());
+        BigArrays.setOffHeap(offHeapArraysParameter.get() != null && offHeapArraysParameter.get());
+        BigArrays.setOffHeapMemory(offHeapMemoryParameter.get());
 
         mainLogger.debug("Assembler version = " + Runner.getVersion());
         mainLogger.debug("Assembler params = " + Arrays.toString(args));